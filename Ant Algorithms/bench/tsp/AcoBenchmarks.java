@@ -0,0 +1,211 @@
+package tsp;
+
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * Benchmarks of the colony phases of AntAlgorithm and ACO, one CSV line
+ * per benchmark and instance size. Instances are random with a fixed
+ * seed, so runs on different commits measure the same work.
+ * <p>
+ * Options: --sizes=100,1000,10000,100000 --ants=25 --threads=1 --warmup=1
+ * --batches=5 --time=1 --filter=text --out=results.csv --precision=FLOAT
+ * <p>
+ * INT and SHORT distances throw on overflow instead of saturating, so with
+ * --precision=SHORT the cities are placed on a square of SHORT_MAP_SIZE,
+ * whose diagonal still fits 16 bits. Results of SHORT are therefore not
+ * comparable with those of the other precisions.
+ * <p>
+ * Above DENSE_LIMIT cities AntAlgorithm runs with matrix-free distances
+ * and candidate-edge pheromone, and the ACO benchmarks are skipped since
+ * ACO has no sparse distance mode.
+ */
+public class AcoBenchmarks {
+
+	static final long SEED = 42;
+	static final int MAP_SIZE = 1000000;
+	static final int SHORT_MAP_SIZE = (int) (ShortMatrix.MAX_VALUE / Math.sqrt(2.0));
+	static final int DENSE_LIMIT = 5000;
+
+	static final String[] ANT_ALGORITHM = { "AntAlgorithm.selectNextCity",
+			"AntAlgorithm.antProduct", "AntAlgorithm.updateTrails",
+			"AntAlgorithm.iterate" };
+	static final String[] ACO_BENCHMARKS = { "ACO.chooseNextCity",
+			"ACO.evaporatePheromoneTrails", "ACO.computeCityDistances",
+			"ACO.iterate" };
+
+	int[] sizes = { 100, 1000, 10000, 100000 };
+	int ants = 25;
+	int threads = 1;
+	String filter = "";
+	Precision precision; // null for the defaults of each solver
+	Bench bench;
+
+	public static void main(String[] args) throws Exception {
+		AcoBenchmarks b = new AcoBenchmarks();
+		double warmup = 1.0, time = 1.0;
+		int batches = 5;
+		PrintStream out = System.out;
+
+		for (String arg : args) {
+			String key = arg.substring(0, Math.max(0, arg.indexOf('=')));
+			String value = arg.substring(arg.indexOf('=') + 1);
+			switch (key) {
+			case "--sizes": {
+				String[] parts = value.split(",");
+				b.sizes = new int[parts.length];
+				for (int i = 0; i < parts.length; i++)
+					b.sizes[i] = Integer.parseInt(parts[i].trim());
+				break;
+			}
+			case "--ants":
+				b.ants = Integer.parseInt(value);
+				break;
+			case "--threads":
+				b.threads = Integer.parseInt(value);
+				break;
+			case "--warmup":
+				warmup = Double.parseDouble(value);
+				break;
+			case "--batches":
+				batches = Integer.parseInt(value);
+				break;
+			case "--time":
+				time = Double.parseDouble(value);
+				break;
+			case "--filter":
+				b.filter = value;
+				break;
+			case "--precision":
+				b.precision = Precision.valueOf(value);
+				break;
+			case "--out":
+				out = new PrintStream(new FileOutputStream(value), true);
+				break;
+			default:
+				throw new IllegalArgumentException("unknown option " + arg);
+			}
+		}
+
+		// keep anything the colonies print out of the results
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		b.bench = new Bench(warmup, batches, time, out);
+		b.bench.header();
+		for (int n : b.sizes) {
+			b.antAlgorithm(n);
+			if (n <= DENSE_LIMIT)
+				b.aco(n);
+		}
+		out.close();
+	}
+
+	boolean selected(String name) {
+		return name.contains(filter);
+	}
+
+	/**
+	 * @return true if any benchmark of the group is selected, so solvers
+	 *         are only set up when they have something to measure
+	 */
+	boolean anySelected(String[] names) {
+		for (String name : names)
+			if (selected(name))
+				return true;
+		return false;
+	}
+
+	Instance instance(int n) {
+		int mapSize = (precision == Precision.SHORT) ? SHORT_MAP_SIZE : MAP_SIZE;
+		return Instance.random(n, mapSize, new SplittableRandom(SEED));
+	}
+
+	void antAlgorithm(int n) throws Exception {
+		if (!anySelected(ANT_ALGORITHM))
+			return;
+
+		AntAlgorithm a = (precision != null) ? new AntAlgorithm(precision)
+				: new AntAlgorithm();
+		boolean dense = n <= DENSE_LIMIT;
+		String storage = dense ? "dense-" + a.precision : "matrix-free";
+		a.seed = SEED;
+		a.random = new SplittableRandom(SEED);
+		a.antCount = Math.min(ants, n);
+		a.threads = threads;
+		a.matrixFree = !dense;
+		a.sparsePheromone = !dense;
+		a.init(instance(n));
+
+		if (selected("AntAlgorithm.selectNextCity")) {
+			bench.measure("AntAlgorithm.selectNextCity", n, storage, n - 1,
+					() -> a.restartAnt(0), () -> a.completeTour(0));
+		}
+
+		if (selected("AntAlgorithm.antProduct")) {
+			long ops = 0;
+			for (int[] candidates : a.nnList)
+				ops += candidates.length;
+			bench.measure("AntAlgorithm.antProduct", n, storage, ops, Bench.NO_SETUP, () -> {
+				double sum = 0.0;
+				for (int from = 0; from < n; from++)
+					for (int to : a.nnList[from])
+						sum += a.antProduct(from, to);
+				Bench.sink = sum;
+			});
+		}
+
+		if (selected("AntAlgorithm.updateTrails")) {
+			a.constructTours();
+			a.updateBest();
+			// start from the initial trails so they never underflow
+			bench.measure("AntAlgorithm.updateTrails", n, storage, 1, a::initTrails,
+					a::updateTrails);
+		}
+
+		if (selected("AntAlgorithm.iterate")) {
+			a.initTrails();
+			a.computeChoiceInformation();
+			bench.measure("AntAlgorithm.iterate", n, storage, 1, Bench.NO_SETUP,
+					a::iterate);
+		}
+
+		if (a.workers != null)
+			a.workers.shutdown();
+	}
+
+	void aco(int n) throws Exception {
+		if (!anySelected(ACO_BENCHMARKS))
+			return;
+
+		ACO aco = (precision != null) ? new ACO(precision) : new ACO();
+		aco.random = new Random(SEED);
+		aco.ant_count = Math.min(ants, n);
+		aco.num_threads = threads;
+		aco.initACO(instance(n));
+		String storage = "dense-" + aco.precision;
+
+		if (selected("ACO.chooseNextCity"))
+			bench.measure("ACO.chooseNextCity", n, storage,
+					(long) aco.num_ants * (n - 1), aco::initAnts, aco::constructTours);
+
+		if (selected("ACO.evaporatePheromoneTrails"))
+			bench.measure("ACO.evaporatePheromoneTrails", n, storage, 1,
+					aco::resetPherom, aco::evaporatePheromoneTrails);
+
+		if (selected("ACO.computeCityDistances"))
+			bench.measure("ACO.computeCityDistances", n, storage,
+					(long) n * (n + 1) / 2, Bench.NO_SETUP, aco::computeCityDistances);
+
+		if (selected("ACO.iterate")) {
+			aco.resetPherom();
+			aco.computeChoiceInformation();
+			aco.initAnts();
+			bench.measure("ACO.iterate", n, storage, 1, Bench.NO_SETUP, aco::iterate);
+		}
+
+		if (aco.workers != null)
+			aco.workers.shutdown();
+	}
+}
@@ -0,0 +1,93 @@
+package tsp;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Minimal timing harness for the benchmarks. Every invocation runs an
+ * untimed setup and then the timed operation; invocations are grouped into
+ * fixed-length batches, first for warm-up and then for measurement, and
+ * the score is the time per operation of each measured batch.
+ */
+public class Bench {
+
+	/**
+	 * Work done by one invocation
+	 */
+	public interface Task {
+		void run() throws Exception;
+	}
+
+	static final Task NO_SETUP = () -> {
+	};
+
+	/** keeps results alive so the JIT cannot drop the work */
+	static volatile double sink;
+
+	final double warmup; // seconds
+	final int batches;
+	final double time; // seconds per batch
+	final PrintStream out;
+
+	public Bench(double warmup, int batches, double time, PrintStream out) {
+		this.warmup = warmup;
+		this.batches = batches;
+		this.time = time;
+		this.out = out;
+	}
+
+	/**
+	 * Column names of the CSV lines written by {@link #measure}
+	 */
+	public void header() {
+		out.println("benchmark,n,storage,batches,invocations,ops_per_invocation,"
+				+ "mean_ns_per_op,stddev_ns_per_op,min_ns_per_op");
+		out.flush();
+	}
+
+	/**
+	 * @param ops
+	 *            operations done by one invocation, the score is per
+	 *            operation
+	 */
+	public void measure(String name, int n, String storage, long ops,
+			Task setup, Task task) throws Exception {
+		run(setup, task, (long) (warmup * 1e9));
+
+		double[] score = new double[batches];
+		long invocations = 0;
+		for (int b = 0; b < batches; b++) {
+			long[] result = run(setup, task, (long) (time * 1e9));
+			invocations += result[1];
+			score[b] = (double) result[0] / result[1] / ops;
+		}
+
+		double mean = Arrays.stream(score).average().orElse(0.0);
+		double var = 0.0;
+		for (double s : score)
+			var += (s - mean) * (s - mean);
+		double stddev = (batches > 1) ? Math.sqrt(var / (batches - 1)) : 0.0;
+		double min = Arrays.stream(score).min().orElse(0.0);
+
+		out.printf("%s,%d,%s,%d,%d,%d,%.3f,%.3f,%.3f%n", name, n, storage,
+				batches, invocations, ops, mean, stddev, min);
+		out.flush();
+	}
+
+	/**
+	 * @return timed nanoseconds and invocations of one batch
+	 */
+	static long[] run(Task setup, Task task, long budget) throws Exception {
+		long timed = 0;
+		long count = 0;
+		long start = System.nanoTime();
+		do {
+			setup.run();
+			long t0 = System.nanoTime();
+			task.run();
+			timed += System.nanoTime() - t0;
+			count++;
+		} while (System.nanoTime() - start < budget);
+		return new long[] { timed, count };
+	}
+}
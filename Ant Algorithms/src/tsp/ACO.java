@@ -1,7 +1,10 @@
 package tsp;
 
 import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Random;
+import java.util.SplittableRandom;
 
 import std.StdDraw;
 
@@ -11,6 +14,10 @@ public class ACO {
 
 	public int num_cities;
 	public int num_ants;
+	public int ant_count = 0; // size of the colony, 0 for one ant per city
+	public int nn_size = 20; // length of each candidate list
+	public int num_threads = 1; // threads used to construct tours
+	Workers workers;
 
 	public static final double LINE_SCALE = 0.0005;
 
@@ -22,12 +29,27 @@ public class ACO {
 	float rho = 0.8f; // decay rate
 	float qval = 500; // amount of pherom to spread on tour.
 
+	Instance instance; // cities to solve, null for random placement
 	City cities[];
 	Ant ants[];
-	float precomp_distance[][]; // edge length, store distances between cities
-	float pherom[][]; // pherom levels on each edge
-	float prevPherom[][];
+	final Precision precision; // of the distances, see Precision
+	boolean packed_matrices = true; // store only the upper triangle
+	boolean lazy_evaporation = false; // decay pherom when it is read
+	boolean sparse_pherom = false; // keep pherom on candidate edges only
+	Path matrix_directory; // map the matrices into files there, null for the heap
+	final long run = new SplittableRandom().nextLong() | 1; // names and tags scratch matrix files
+	Matrix precomp_distance; // edge length, store distances between cities
+	Matrix pherom; // pherom levels on each edge
+	Matrix prevPherom;
+	Matrix heuristic; // eta^beta, fixed once the cities are placed
+	Matrix choice_info; // tau^alpha * eta^beta, refreshed every iteration
 	float base_pherom; // minimum pherom level
+	int nn_list[][]; // nearest neighbours of each city, closest first
+	int nn_reverse[][]; // candidate list slots (row * k + position) of each city
+	double nn_choice[][]; // choice information of each candidate edge
+	double row_total[]; // summed choice information of each candidate list
+	AliasTable alias_tables[];
+	Sampling sampling = Sampling.CUMULATIVE;
 
 	double best_tour; // length of best tour found
 	int best_index = -1; // index of ants[] with best tour
@@ -35,48 +57,121 @@ public class ACO {
 	int prev_best_tour_history[];
 
 	int iterations; // no of iterations used on ACO
+	double mean_tour; // mean tour length of the last iteration
+	ColonyMetrics metrics; // null unless setMetrics was called
 
 	float iterationTimer = 0; // remember time
 	float iterationTimeLength = 0.05f; // how fast to iterate in seconds
 	int grabbedNode = -1;
 
-	public static void main(String[] args) {
+	public ACO() {
+		this(Precision.FLOAT);
+	}
+
+	/**
+	 * @param precision
+	 *            storage of the matrices, integer precisions round the
+	 *            distances
+	 */
+	public ACO(Precision precision) {
+		this.precision = precision;
+	}
+
+	public static void main(String[] args) throws IOException {
 		ACO aco = new ACO();
+		if (args.length > 0)
+			aco.instance = TsplibReader.read(args[0]);
 		aco.start();
 	}
 
+	/**
+	 * Record phase timings, tour lengths and throughput in the registry
+	 * 
+	 * @param colony
+	 *            label that tells this colony apart from others in the same
+	 *            registry
+	 */
+	public void setMetrics(Metrics registry, String colony) {
+		metrics = new ColonyMetrics(registry, colony, () -> best_tour,
+				() -> mean_tour, () -> (nn_choice != null)
+						? CandidateLists.entropy(nn_choice) : Double.NaN);
+	}
+
 	void start() {
 
-		initACO();
+		initACO(instance);
 
 		draw();
 
-		int time = 0;
-
-		while (time < num_ants * num_cities / 0.75) {
-			time++;
-
-			if (moveAnts() == 0) { // all the ants stopped moving
-				evaporatePheromoneTrails();
-				intensifyPheromoneTrails();
-				backupPheromoneTrails();
-				findBestTour();
-				initAnts();
-
-				// here should be hook to update the graphics
-				updateGraphics();
-				try {
-					Thread.sleep(100);
-				} catch (InterruptedException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
+		int max_iterations = (int) (num_ants / 0.75);
+
+		while (iterations < max_iterations) {
+			iterate();
+
+			// here should be hook to update the graphics
+			updateGraphics();
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
 			}
 		}
 
+		if (workers != null) {
+			workers.shutdown();
+			workers = null;
+		}
+
 		draw();
 	}
 
+	/**
+	 * One colony iteration, without the graphics
+	 */
+	void iterate() {
+		Events.Iteration event = new Events.Iteration();
+		event.begin();
+		iterations++;
+
+		long t = System.nanoTime();
+		Events.Construction construction = new Events.Construction();
+		construction.begin();
+		constructTours(); // all the ants stopped moving
+		if (construction.shouldCommit()) {
+			construction.solver = "ACO";
+			construction.iteration = iterations;
+			construction.ants = num_ants;
+			construction.threads = num_threads;
+			construction.commit();
+		}
+		if (metrics != null)
+			t = metrics.construction.since(t);
+		evaporatePheromoneTrails();
+		if (metrics != null)
+			t = metrics.evaporation.since(t);
+		intensifyPheromoneTrails();
+		if (metrics != null)
+			metrics.deposit.since(t);
+		backupPheromoneTrails();
+		t = System.nanoTime();
+		computeChoiceInformation();
+		if (metrics != null) {
+			metrics.choice.since(t);
+			metrics.iteration(num_ants);
+		}
+		findBestTour();
+		initAnts();
+
+		if (event.shouldCommit()) {
+			event.solver = "ACO";
+			event.iteration = iterations;
+			event.bestLength = best_tour;
+			event.meanLength = mean_tour;
+			event.commit();
+		}
+	}
+
 	void updateGraphics() {
 		drawCities();
 
@@ -138,13 +233,13 @@ public class ACO {
 					continue;
 				// Erase Previous line
 				StdDraw.setPenColor(Color.WHITE);
-				StdDraw.setPenRadius(pherom[startCity][nextCity] * LINE_SCALE);
+				StdDraw.setPenRadius(pherom.get(startCity, nextCity) * LINE_SCALE);
 				StdDraw.line(cities[startCity].x, cities[startCity].y,
 						cities[nextCity].x, cities[nextCity].y);
 
 				// Draw the line
 				StdDraw.setPenColor(Color.black);
-				StdDraw.setPenRadius(pherom[startCity][nextCity] * LINE_SCALE);
+				StdDraw.setPenRadius(pherom.get(startCity, nextCity) * LINE_SCALE);
 				StdDraw.line(cities[startCity].x, cities[startCity].y,
 						cities[nextCity].x, cities[nextCity].y);
 			}
@@ -175,22 +270,47 @@ public class ACO {
 	}
 
 	void initACO() {
+		initACO(null);
+	}
+
+	/**
+	 * @param instance
+	 *            cities to solve, or null for 20 randomly placed cities
+	 */
+	void initACO(Instance instance) {
+		this.instance = instance;
 		iterations = 0;
-		num_cities = 20;
-		num_ants = 20;
+		num_cities = (instance != null) ? instance.size() : 20;
+		num_ants = (ant_count > 0) ? ant_count : num_cities;
 
-		best_tour = 100000.0f;
+		best_tour = Double.MAX_VALUE; // TSPLIB tours can be far longer
 		base_pherom = (float) (1.0 / num_cities);
 
 		cities = new City[num_cities];
 		ants = new Ant[num_ants];
 		for (int i = 0; i < num_ants; i++) {
 			ants[i] = new Ant();
+			ants[i].random = new SplittableRandom(random.nextLong());
 		}
 
-		precomp_distance = new float[num_cities][num_cities];
-		pherom = new float[num_cities][num_cities];
-		prevPherom = new float[num_cities][num_cities];
+		precomp_distance = createMatrix("distance", precision, instance != null);
+		heuristic = createMatrix("heuristic", precision.trails(), false);
+		if (sparse_pherom) {
+			// created with the candidate lists, nothing reads the backup
+			pherom = null;
+			prevPherom = null;
+			choice_info = null;
+		} else if (lazy_evaporation) {
+			// no full copies: only candidate edges get cached choice info
+			// and the backup, which nothing reads, is skipped
+			pherom = new LazyMatrix(createMatrix("pherom", precision.trails(), false), 1.0 - rho);
+			prevPherom = null;
+			choice_info = null;
+		} else {
+			pherom = createMatrix("pherom", precision.trails(), false);
+			prevPherom = createMatrix("prev_pherom", precision.trails(), false);
+			choice_info = createMatrix("choice_info", precision.trails(), false);
+		}
 		best_tour_history = new int[num_cities];
 		prev_best_tour_history = new int[num_cities];
 
@@ -200,40 +320,135 @@ public class ACO {
 	}
 
 	void initCities() {
-		// randomly place cities on the map
-		for (int i = 0; i < num_cities; i++) {
-			cities[i] = new City();
-			cities[i].x = random.nextInt(100);
-			cities[i].y = random.nextInt(100);
+		if (instance != null) {
+			// fit the instance into the drawing area
+			int[][] layout = instance.layout(100);
+			for (int i = 0; i < num_cities; i++) {
+				cities[i] = new City();
+				cities[i].x = layout[i][0];
+				cities[i].y = layout[i][1];
+			}
+		} else {
+			// randomly place cities on the map
+			for (int i = 0; i < num_cities; i++) {
+				cities[i] = new City();
+				cities[i].x = random.nextInt(100);
+				cities[i].y = random.nextInt(100);
+			}
 		}
 
+		computeCityDistances();
+
+		if (instance != null && instance.isPlanar())
+			nn_list = CandidateLists.build(new KdTree(instance), nn_size);
+		else
+			nn_list = CandidateLists.build(precomp_distance, nn_size);
+		nn_reverse = CandidateLists.reverse(nn_list);
+		if (sparse_pherom)
+			pherom = new SparseMatrix(nn_list);
 		resetPherom();
 
-		computeCityDistances();
+		nn_choice = new double[num_cities][nn_list[0].length];
+		row_total = new double[num_cities];
+		if (sampling == Sampling.ALIAS) {
+			alias_tables = new AliasTable[num_cities];
+			for (int i = 0; i < num_cities; i++)
+				alias_tables[i] = new AliasTable(nn_list[0].length);
+		}
+		computeHeuristic();
+		computeChoiceInformation();
+	}
 
+	/**
+	 * @param keep
+	 *            contents only depend on the instance and may be reused by
+	 *            later runs, see MappedMatrix. Other matrices get a file of
+	 *            this colony alone, named and tagged by run and deleted when
+	 *            the JVM exits.
+	 * @return matrix on the heap, or mapped into matrix_directory (as floats
+	 *         unless the precision is DOUBLE)
+	 */
+	Matrix createMatrix(String role, Precision precision, boolean keep) {
+		if (matrix_directory == null)
+			return Matrix.create(precision, num_cities, packed_matrices);
+		String name = (instance != null) ? instance.getName() : "random" + num_cities;
+		if (!keep)
+			name += "." + Long.toHexString(run);
+		// the layout is part of the name, so colonies that store a matrix
+		// differently never truncate each other's file
+		boolean floats = precision != Precision.DOUBLE;
+		name += "." + role + (floats ? ".float" : ".double")
+				+ (packed_matrices ? "" : ".dense");
+		Path file = matrix_directory.resolve(name);
+		try {
+			Matrix matrix = Matrix.mapped(file, num_cities, packed_matrices, floats,
+					keep ? instance.fingerprint() : run);
+			if (!keep)
+				file.toFile().deleteOnExit();
+			return matrix;
+		} catch (IOException e) {
+			throw new IllegalStateException("cannot map " + file, e);
+		}
 	}
 
 	void computeCityDistances() {
+		if (precomp_distance instanceof MappedMatrix
+				&& ((MappedMatrix) precomp_distance).isComplete())
+			return; // written by an earlier run on the same instance
+		if (instance != null) {
+			instance.fill(precomp_distance);
+			if (precomp_distance instanceof MappedMatrix)
+				((MappedMatrix) precomp_distance).markComplete();
+			return;
+		}
 		for (int from = 0; from < num_cities; from++) {
-			for (int to = 0; to < num_cities; to++) {
+			for (int to = from; to < num_cities; to++) {
 				float dx = Math.abs(cities[from].x - cities[to].x);
 				float dy = Math.abs(cities[from].y - cities[to].y);
 				float distance = (float) Math.sqrt((dx * dx) + (dy * dy));
-				precomp_distance[from][to] = distance;
-				precomp_distance[to][from] = distance;
+				precomp_distance.setSymmetric(from, to, distance);
 			}
 		}
 	}
 
-	void resetPherom() {
+	void computeHeuristic() {
 		for (int from = 0; from < num_cities; from++) {
-			for (int to = 0; to < num_cities; to++) {
-				pherom[from][to] = base_pherom;
-				pherom[to][from] = base_pherom;
+			for (int to = from; to < num_cities; to++) {
+				// offset keeps cities on the same spot finite
+				heuristic.setSymmetric(from, to, FastPow.pow(
+						1.0 / (precomp_distance.get(from, to) + 0.1), beta_value));
 			}
 		}
 	}
 
+	void computeChoiceInformation() {
+		if (choice_info != null)
+			choice_info.setChoice(pherom, 0.0, alpha_value, heuristic);
+
+		// candidate edges, their totals and alias tables
+		for (int from = 0; from < num_cities; from++) {
+			double total = 0.0;
+			for (int i = 0; i < nn_list[from].length; i++) {
+				nn_choice[from][i] = choiceInfo(from, nn_list[from][i]);
+				total += nn_choice[from][i];
+			}
+			row_total[from] = total;
+			if (alias_tables != null)
+				alias_tables[from].build(nn_choice[from]);
+		}
+	}
+
+	double choiceInfo(int from, int to) {
+		if (choice_info != null)
+			return choice_info.get(from, to);
+		return FastPow.pow(pherom.get(from, to), alpha_value)
+				* heuristic.get(from, to);
+	}
+
+	void resetPherom() {
+		pherom.fill(base_pherom);
+	}
+
 	void findBestTour() {
 		
 		// save the values 
@@ -242,8 +457,18 @@ public class ACO {
 		}
 		
 		// linear search for possible shorter path
+		double sum = 0.0;
 		for (int i = 0; i < num_ants; i++) {
+			sum += ants[i].tour_length;
 			if (ants[i].tour_length < best_tour) {
+				Events.BestTour event = new Events.BestTour();
+				if (event.shouldCommit()) {
+					event.solver = "ACO";
+					event.iteration = iterations;
+					event.previousLength = best_tour;
+					event.length = ants[i].tour_length;
+					event.commit();
+				}
 				best_tour = ants[i].tour_length;
 				best_index = i;
 
@@ -254,6 +479,7 @@ public class ACO {
 			}
 		}
 
+		mean_tour = sum / num_ants;
 		// System.out.println("New best length of " + best_tour);
 	}
 
@@ -263,7 +489,7 @@ public class ACO {
 		for (int i = 0; i < num_ants; i++) {
 
 			for (int j = 0; j < num_cities; j++) {
-				ants[i].tabu[j] = 0;
+				ants[i].tabu[j] = false;
 				ants[i].tour[j] = 0;
 			}
 			// place this ant in a city, and reflect it in the tabu
@@ -271,7 +497,9 @@ public class ACO {
 			// ants[i].next_city = city; // will be set on choosenext
 			city++;
 			city %= num_cities;
-			ants[i].tabu[ants[i].current_city] = 1;
+			ants[i].tabu[ants[i].current_city] = true;
+			System.arraycopy(row_total, 0, ants[i].row_mass, 0, num_cities);
+			removeCandidate(ants[i], ants[i].current_city);
 
 			// update the tour, and current tour length given the current path
 			ants[i].tour[0] = ants[i].current_city;
@@ -281,49 +509,85 @@ public class ACO {
 	}
 
 	void chooseNextCity(Ant ant) {
-		double d = 0.0;
-		double p = 0.0;
-
 		int from = ant.current_city;
-		int to = 0;
-
-		for (to = 0; to < num_cities; to++) {
-			if (ant.tabu[to] == 0) {
-				// city not yet visited
-				d += Math.pow(pherom[from][to], (float) alpha_value)
-						* Math.pow((1.0 / precomp_distance[from][to]),
-								(float) beta_value);
+		int to = -1;
+		int candidates[] = nn_list[from];
+		double d = ant.row_mass[from]; // kept up to date by removeCandidate
+
+		if (d > 0.0) {
+			// probabilistically select the next city, one draw per step
+			switch (sampling) {
+			case ALIAS:
+				to = candidates[alias_tables[from].sample(ant.random.nextDouble())];
+				if (ant.tabu[to]) // already visited, redraw among the rest
+					to = Sampler.cumulative(candidates, nn_choice[from],
+							ant.tabu, d, ant.random.nextDouble());
+				break;
+			case BINARY_SEARCH:
+				to = Sampler.binarySearch(candidates, nn_choice[from],
+						ant.tabu, ant.prefix, ant.slots, ant.random.nextDouble());
+				break;
+			case CUMULATIVE:
+				to = Sampler.cumulative(candidates, nn_choice[from], ant.tabu,
+						d, ant.random.nextDouble());
+				break;
 			}
 		}
 
-		// probabilistically select the next city
-		to = 0;
-		while (true) {
-			if (ant.tabu[to] == 0) {
-				p = Math.pow(pherom[from][to], (float) alpha_value)
-						* Math.pow((1.0 / precomp_distance[from][to]),
-								(float) beta_value) / d;
-				if (random.nextDouble() <= p)
-					break;
-			}
-			to++;
-			to %= num_cities;
+		if (to == -1) {
+			// every candidate visited, take the best city outside the list
+			to = chooseBestCity(ant);
 		}
 
 		// we have our new destination, update for the new city
 		ant.next_city = to;
-		ant.tabu[ant.next_city] = 1; // mark as visited
+		ant.tabu[ant.next_city] = true; // mark as visited
+		removeCandidate(ant, ant.next_city);
 		ant.tour[ant.tour_index] = ant.next_city; // update tour log
 		ant.tour_index++;
-		ant.tour_length += precomp_distance[ant.current_city][ant.next_city];
+		ant.tour_length += precomp_distance.get(ant.current_city, ant.next_city);
 
 		// visited all cities, add distance from start to end.
 		if (ant.tour_index == num_cities) {
-			ant.tour_length += precomp_distance[ant.tour[num_cities - 1]][ant.tour[0]];
+			ant.tour_length += precomp_distance.get(ant.tour[num_cities - 1], ant.tour[0]);
 		}
 		ant.current_city = ant.next_city; // !!!
 	}
 
+	// take a visited city out of the candidate list totals of the ant
+	void removeCandidate(Ant ant, int city) {
+		int k = nn_list[0].length;
+		for (int slot : nn_reverse[city]) {
+			int row = slot / k;
+			ant.row_mass[row] -= nn_choice[row][slot - row * k];
+		}
+	}
+
+	// unvisited city with the highest choice value, the nearest one on a tie;
+	// float trails of unused edges underflow to zero after a few dozen
+	// iterations, and then only the distance tells the cities apart
+	int chooseBestCity(Ant ant) {
+		int from = ant.current_city;
+		int best = -1;
+		double best_value = -1.0;
+		double best_distance = Double.MAX_VALUE;
+
+		for (int to = 0; to < num_cities; to++) {
+			if (!ant.tabu[to]) {
+				double value = choiceInfo(from, to);
+				if (value < best_value)
+					continue;
+				double d = precomp_distance.get(from, to);
+				if (value > best_value || d < best_distance) {
+					best_value = value;
+					best_distance = d;
+					best = to;
+				}
+			}
+		}
+		return best;
+	}
+
 	int moveAnts() {
 		int moved = 0;
 		for (int i = 0; i < num_ants; i++) {
@@ -336,37 +600,58 @@ public class ACO {
 						// re-init. Return 0
 	}
 
-	void backupPheromoneTrails() {
-		for (int from = 0; from < num_cities; from++) {
-			for (int to = 0; to < num_cities; to++) {
-				prevPherom[from][to] = pherom[from][to];
-			}
+	// build complete tours, one slice of the colony per thread. pherom and
+	// choice_info are only read until every worker is done.
+	void constructTours() {
+		if (num_threads <= 1) {
+			while (moveAnts() != 0)
+				;
+			return;
 		}
+
+		if (workers == null)
+			workers = new Workers(num_threads);
+		workers.run(num_ants, i -> {
+			while (ants[i].tour_index < num_cities)
+				chooseNextCity(ants[i]);
+		});
+	}
+
+	void backupPheromoneTrails() {
+		if (prevPherom != null)
+			prevPherom.copyFrom(pherom);
 	}
 
 	void evaporatePheromoneTrails() {
-		for (int from = 0; from < num_cities; from++) {
-			for (int to = 0; to < num_cities; to++) {
-				// equation 14.4
-				pherom[from][to] *= (1.0 - rho);
-				if (pherom[from][to] < 0.0) {
-					pherom[from][to] = base_pherom;
-				}
-			}
-		}
+		Events.PheromoneUpdate event = new Events.PheromoneUpdate();
+		event.begin();
+		// equation 14.4, a clock tick with lazy evaporation
+		pherom.scale(1.0 - rho);
+		commit(event, "evaporation");
 	}
 
 	void intensifyPheromoneTrails() {
+		Events.PheromoneUpdate event = new Events.PheromoneUpdate();
+		event.begin();
 		for (int i = 0; i < num_ants; i++) {
 			for (int city = 0; city < num_cities; city++) {
 				int from = ants[i].tour[city];
 				int to = ants[i].tour[((city + 1) % num_cities)];
 
 				// eq 14.2 / 14.3
-				pherom[from][to] += (qval / ants[i].tour_length) * rho;
-				pherom[to][from] = pherom[from][to];
+				pherom.addSymmetric(from, to, (qval / ants[i].tour_length) * rho);
 			}
 		}
+		commit(event, "deposit");
+	}
+
+	void commit(Events.PheromoneUpdate event, String update) {
+		if (event.shouldCommit()) {
+			event.solver = "ACO";
+			event.iteration = iterations;
+			event.update = update;
+			event.commit();
+		}
 	}
 
 	// INNER CLASSES
@@ -378,13 +663,20 @@ public class ACO {
 	class Ant {
 		int current_city;
 		int next_city;
-		int tabu[];
+		boolean tabu[];
 		int tour_index;
 		int tour[];
 		double tour_length;
+		SplittableRandom random; // per ant, so workers never share one
+		double row_mass[]; // unvisited choice information in each candidate list
+		double prefix[]; // scratch space for binary search sampling
+		int slots[];
 
 		Ant() {
-			tabu = new int[num_cities];
+			tabu = new boolean[num_cities];
+			row_mass = new double[num_cities];
+			prefix = new double[Math.min(nn_size, num_cities - 1)];
+			slots = new int[prefix.length];
 			tour = new int[num_cities];
 		}
 	}
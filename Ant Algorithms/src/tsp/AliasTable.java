@@ -0,0 +1,84 @@
+package tsp;
+
+/**
+ * Walker alias table (Vose's construction) over a fixed set of weights.
+ * Building costs O(k), drawing an index costs O(1) and a single uniform
+ * number.
+ */
+public class AliasTable {
+
+	final double[] prob;
+	final int[] alias;
+
+	public AliasTable(int k) {
+		prob = new double[k];
+		alias = new int[k];
+	}
+
+	/**
+	 * @param weights
+	 *            non-negative weight of every index
+	 */
+	public void build(double[] weights) {
+		int k = prob.length;
+		double total = 0.0;
+		for (int i = 0; i < k; i++)
+			total += weights[i];
+
+		if (total <= 0.0) {
+			// nothing to prefer, draw uniformly
+			for (int i = 0; i < k; i++) {
+				prob[i] = 1.0;
+				alias[i] = i;
+			}
+			return;
+		}
+
+		int[] small = new int[k];
+		int[] large = new int[k];
+		int ns = 0, nl = 0;
+		for (int i = 0; i < k; i++) {
+			prob[i] = weights[i] * k / total;
+			if (prob[i] < 1.0)
+				small[ns++] = i;
+			else
+				large[nl++] = i;
+		}
+
+		while (ns > 0 && nl > 0) {
+			int s = small[--ns];
+			int l = large[--nl];
+			alias[s] = l;
+			prob[l] -= 1.0 - prob[s];
+			if (prob[l] < 1.0)
+				small[ns++] = l;
+			else
+				large[nl++] = l;
+		}
+		// whatever is left is 1 up to rounding
+		while (nl > 0) {
+			int l = large[--nl];
+			prob[l] = 1.0;
+			alias[l] = l;
+		}
+		while (ns > 0) {
+			int s = small[--ns];
+			prob[s] = 1.0;
+			alias[s] = s;
+		}
+	}
+
+	/**
+	 * @param u
+	 *            uniform number in [0, 1)
+	 * @return index drawn with probability proportional to its weight
+	 */
+	public int sample(double u) {
+		int k = prob.length;
+		double x = u * k;
+		int i = (int) x;
+		if (i >= k)
+			i = k - 1;
+		return (x - i < prob[i]) ? i : alias[i];
+	}
+}
@@ -1,6 +1,11 @@
 package tsp;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.text.CharacterIterator;
+import java.util.SplittableRandom;
+
+import com.sun.net.httpserver.HttpServer;
 
 public class AntAlgorithm {
 
@@ -11,63 +16,245 @@ public class AntAlgorithm {
 	public static final double BETA = 1.0;
 	public static final double RHO = 0.5;
 	public static final int QVAL = 500;
+	public static final int NN_SIZE = 20; // length of each candidate list
 
 	// =====================
 	// VARIABLES
 	// ====================
 	double INIT_PHEROMONE;
+	Instance instance;
+	KdTree kdTree; // spatial index of planar instances, null otherwise
 	City[] cities;
 	Ant[] ants;
-	double[][] distance;
-	double[][] pheromone;
+	final Precision precision; // of the distances, see Precision
+	boolean packedMatrices = true; // store only the upper triangle
+	boolean lazyEvaporation = false; // decay pheromone when it is read
+	boolean matrixFree = false; // compute distances from the coordinates
+	boolean sparsePheromone = false; // keep pheromone on candidate edges only
+	Path matrixDirectory; // map the matrices into files there, null for the heap
+	final long run = new SplittableRandom().nextLong() | 1; // names and tags scratch matrix files
+	int cachedRows = 16; // full rows each thread keeps when matrix-free
+	Matrix distance;
+	Matrix pheromone;
+	Matrix heuristic; // eta^beta, fixed once the cities are placed
+	Matrix choiceInfo; // tau^alpha * eta^beta, refreshed every iteration
+	int[][] nnList; // nearest neighbours of each city, closest first
+	int[][] nnReverse; // candidate list slots (row * k + position) of each city
+	double[][] nnChoice; // choice information of each candidate edge
+	double[] rowTotal; // summed choice information of each candidate list
+	AliasTable[] aliasTables;
+	Sampling sampling = Sampling.CUMULATIVE;
 	int bestIndex;
 	int[] bestPath;
 	double bestPathLength = Double.MAX_VALUE;
+	long seed = System.nanoTime();
+	SplittableRandom random;
+	int threads = 1; // threads used to construct and improve tours
+	Workers workers;
+	int iteration;
+	double meanTourLength; // of the last iteration
+	ColonyMetrics metrics; // null unless setMetrics was called
+	LocalSearch localSearch = LocalSearch.NONE;
+	ThreadLocal<TwoOpt> twoOpt; // work arrays for each thread
+	ThreadLocal<OrOpt> orOpt;
+
+	// parameters of the pheromone update, see setEngine
+	Engine engine = Engine.ANT_SYSTEM;
+	double alpha = ALPHA;
+	double beta = BETA;
+	double rho = RHO;
+	double qval = QVAL;
+	int antCount = 0; // size of the colony, 0 for one ant per city
+
+	// MAX-MIN Ant System
+	double pBest = 0.05; // chance of rebuilding the best tour once converged
+	int globalBestEvery = 25; // iterations between global-best deposits
+	int stagnationCheck = 100; // iterations between branching factor checks
+	int stagnationIterations = 250; // without improvement before a reinit
+	double tauMax, tauMin;
+	int iterationBest; // index of the best ant of the current iteration
+	int improvedAt; // iteration the best tour was last improved
+
+	// Ant Colony System
+	double q0 = 0.9; // chance of taking the best candidate without sampling
+	double xi = 0.1; // local pheromone evaporation
+	double tau0; // initial and local update pheromone level
+
+	public AntAlgorithm() {
+		this(Precision.DOUBLE);
+	}
+
+	/**
+	 * @param precision
+	 *            storage of the matrices, integer precisions round the
+	 *            distances
+	 */
+	public AntAlgorithm(Precision precision) {
+		this.precision = precision;
+	}
+
+	/**
+	 * Select the pheromone update rule and load its usual parameters. Call
+	 * before start; parameters may still be changed afterwards.
+	 */
+	public void setEngine(Engine engine) {
+		this.engine = engine;
+		switch (engine) {
+		case ANT_SYSTEM:
+			alpha = ALPHA;
+			beta = BETA;
+			rho = RHO;
+			break;
+		case MAX_MIN_ANT_SYSTEM:
+			alpha = 1.0;
+			beta = 2.0;
+			rho = 0.02;
+			break;
+		case ANT_COLONY_SYSTEM:
+			alpha = 1.0;
+			beta = 2.0;
+			rho = 0.1;
+			q0 = 0.9;
+			xi = 0.1;
+			antCount = 10;
+			break;
+		}
+	}
+
+	/**
+	 * Record phase timings, tour lengths and throughput in the registry
+	 * 
+	 * @param colony
+	 *            label that tells this colony apart from others in the same
+	 *            registry
+	 */
+	public void setMetrics(Metrics registry, String colony) {
+		metrics = new ColonyMetrics(registry, colony, () -> bestPathLength,
+				() -> meanTourLength, () -> (nnChoice != null)
+						? CandidateLists.entropy(nnChoice) : Double.NaN);
+	}
 
 	/**
 	 * Initialize the cities, their distances and the ant population
-	 * @param nCities number of cities
+	 * @param instance cities and distance function
 	 */
-	private void init(int nCities) {
+	void init(Instance instance) {
+		int nCities = instance.size();
 		// Initialise variables
 		INIT_PHEROMONE = 1.0 / nCities;
-		distance = new double[nCities][nCities];
-		pheromone = new double[nCities][nCities];
+		if (random == null)
+			random = new SplittableRandom(seed);
+		this.instance = instance;
+		if (matrixFree && instance.hasCoordinates()
+				&& instance.type != Instance.Type.EXPLICIT) {
+			distance = new ComputedMatrix(nCities, instance::distance, cachedRows);
+			heuristic = new ComputedMatrix(nCities, (from, to) -> FastPow.pow(
+					1.0 / (distance.get(from, to) + 0.1), beta), cachedRows);
+		} else {
+			distance = createMatrix("distance", precision, true);
+			heuristic = createMatrix("heuristic", precision.trails(), false);
+		}
+		if (!sparsePheromone) {
+			pheromone = createMatrix("pheromone", precision.trails(), false);
+			if (lazyEvaporation)
+				pheromone = new LazyMatrix(pheromone, 1.0 - rho);
+		}
+		if (lazyEvaporation || sparsePheromone
+				|| distance instanceof ComputedMatrix) {
+			// only the candidate edges get their choice information cached
+			choiceInfo = null;
+		} else {
+			choiceInfo = createMatrix("choice", precision.trails(), false);
+		}
 		bestPath = new int[nCities];
 		
-		createCities(nCities);
-		createAnts(nCities);
+		createCities(instance);
+		kdTree = instance.isPlanar() ? new KdTree(instance) : null;
+		nnList = (kdTree != null) ? CandidateLists.build(kdTree, NN_SIZE)
+				: CandidateLists.build(distance, NN_SIZE);
+		nnReverse = CandidateLists.reverse(nnList);
+		if (sparsePheromone)
+			pheromone = new SparseMatrix(nnList); // evaporation is O(n k) already
+		if (distance instanceof ComputedMatrix) {
+			((ComputedMatrix) distance).cacheCandidates(nnList);
+			((ComputedMatrix) heuristic).cacheCandidates(nnList);
+		}
+		nnChoice = new double[nCities][nnList[0].length];
+		rowTotal = new double[nCities];
+		if (sampling == Sampling.ALIAS) {
+			aliasTables = new AliasTable[nCities];
+			for (int i = 0; i < nCities; i++)
+				aliasTables[i] = new AliasTable(nnList[0].length);
+		}
+		computeHeuristic();
+		twoOpt = ThreadLocal.withInitial(() -> new TwoOpt(distance, nnList));
+		orOpt = ThreadLocal.withInitial(() -> new OrOpt(distance, nnList,
+				localSearch == LocalSearch.OR_2OPT));
+		initTrails();
+		computeChoiceInformation();
+		createAnts(antCount > 0 ? antCount : nCities);
 	}
 
-	private void createCities(int nCities) {
-		
-		int from, to;
-		// Create the cities and their locations
-		cities = new City[nCities];
-		for (from = 0; from < nCities; from++) {
-			// randomly place a city
-			cities[from] = new City();
-			
-			for(to = 0; to < nCities; to++) {
-				distance[from][to]  = 0.0;
-				pheromone[from][to] = INIT_PHEROMONE;
-			}
+	/**
+	 * @param role
+	 *            what the matrix holds, names its file
+	 * @param keep
+	 *            contents only depend on the instance and may be reused by
+	 *            later runs, see MappedMatrix. Other matrices get a file of
+	 *            this colony alone, named and tagged by run and deleted when
+	 *            the JVM exits.
+	 * @return matrix on the heap, or mapped into matrixDirectory (as floats
+	 *         unless the precision is DOUBLE)
+	 */
+	Matrix createMatrix(String role, Precision precision, boolean keep) {
+		int n = instance.size();
+		if (matrixDirectory == null)
+			return Matrix.create(precision, n, packedMatrices);
+		String name = instance.getName();
+		if (!keep)
+			name += "." + Long.toHexString(run);
+		// the layout is part of the name, so colonies that store a matrix
+		// differently never truncate each other's file
+		boolean floats = precision != Precision.DOUBLE;
+		name += "." + role + (floats ? ".float" : ".double")
+				+ (packedMatrices ? "" : ".dense");
+		Path file = matrixDirectory.resolve(name);
+		try {
+			Matrix matrix = Matrix.mapped(file, n, packedMatrices, floats,
+					keep ? instance.fingerprint() : run);
+			if (!keep)
+				file.toFile().deleteOnExit();
+			return matrix;
+		} catch (IOException e) {
+			throw new IllegalStateException("cannot map " + file, e);
 		}
-		
-		// compute the distances for each of the cities on the map
-		for(from = 0; from < nCities; from++) {
-			for(to = 0; to < nCities; to++) {
-				if((to != from) && (distance[from][to] == 0.0)) {
-					int xd = Math.abs(cities[from].x - cities[to].x);
-					int yd = Math.abs(cities[from].y - cities[to].y);
-
-					double d = Math.sqrt(xd * xd + yd * yd);
-					distance[from][to] = d;
-					distance[to][from] = d;
-				}
+	}
+
+	private void createCities(Instance instance) {
+		// cities are only kept for drawing, the distances come from the instance
+		if (instance.hasCoordinates()) {
+			cities = new City[instance.size()];
+			for (int i = 0; i < cities.length; i++)
+				cities[i] = new City((int) Math.round(instance.x[i]),
+						(int) Math.round(instance.y[i]));
+		} else {
+			int[][] layout = instance.layout(Instance.DEFAULT_MAP_SIZE);
+			cities = new City[layout.length];
+			for (int i = 0; i < cities.length; i++)
+				cities[i] = new City(layout[i][0], layout[i][1]);
+		}
+		if (distance instanceof ComputedMatrix)
+			return;
+		if (distance instanceof MappedMatrix) {
+			// a complete file from an earlier run saves the O(n^2) fill
+			MappedMatrix mapped = (MappedMatrix) distance;
+			if (!mapped.isComplete()) {
+				instance.fill(mapped);
+				mapped.markComplete();
 			}
+			return;
 		}
-		
+		instance.fill(distance);
 	}
 
 	private void createAnts(int nAnts) {
@@ -75,7 +262,199 @@ public class AntAlgorithm {
 		for (int i = 0; i < nAnts; i++) {
 			// Distribute ants to each of the cities
 			ants[i] = new Ant(cities.length, i);
+			// every ant draws from its own generator
+			ants[i].random = random.split();
+			ants[i].reset(cities.length, startCity(ants[i], i));
+			ants[i].rowMass = new double[cities.length];
+			ants[i].prefix = new double[nnList[0].length];
+			ants[i].slots = new int[nnList[0].length];
+			startAnt(ants[i]);
+		}
+	}
+
+	/**
+	 * Set the starting pheromone level. MAX-MIN starts every trail at the
+	 * upper bound, estimated from a nearest neighbour tour.
+	 */
+	void initTrails() {
+		if (engine == Engine.MAX_MIN_ANT_SYSTEM) {
+			updateTrailLimits(nearestNeighbourTour());
+			pheromone.fill(tauMax);
+		} else if (engine == Engine.ANT_COLONY_SYSTEM) {
+			tau0 = 1.0 / (cities.length * nearestNeighbourTour());
+			pheromone.fill(tau0);
+		} else {
+			pheromone.fill(INIT_PHEROMONE);
+		}
+	}
+
+	/**
+	 * @return length of the tour that always moves to the closest unvisited
+	 *         city, starting from city 0
+	 */
+	double nearestNeighbourTour() {
+		boolean[] visited = new boolean[cities.length];
+		int cur = 0;
+		double length = 0.0;
+		visited[cur] = true;
+		if (kdTree != null) {
+			kdTree.reset();
+			kdTree.remove(cur);
+		}
+
+		for (int step = 1; step < cities.length; step++) {
+			int next = -1;
+			for (int to : nnList[cur]) {
+				if (!visited[to]) {
+					next = to;
+					break;
+				}
+			}
+			if (next == -1 && kdTree != null) {
+				next = kdTree.nearest(cur);
+			} else if (next == -1) {
+				// candidates used up, take the closest unvisited city
+				for (int to = 0; to < cities.length; to++) {
+					if (!visited[to] && (next == -1
+							|| distance.get(cur, to) < distance.get(cur, next)))
+						next = to;
+				}
+			}
+			visited[next] = true;
+			if (kdTree != null)
+				kdTree.remove(next);
+			length += distance.get(cur, next);
+			cur = next;
 		}
+		return length + distance.get(cur, 0);
+	}
+
+	/**
+	 * MAX-MIN trail limits for the given best tour length
+	 */
+	void updateTrailLimits(double length) {
+		int n = cities.length;
+		double avg = (nnList[0].length + 1) / 2.0;
+		double pDec = Math.pow(pBest, 1.0 / n);
+		tauMax = 1.0 / (rho * length);
+		tauMin = tauMax * (1.0 - pDec) / (Math.max(avg - 1.0, 1.0) * pDec);
+		tauMin = Math.min(tauMin, tauMax);
+	}
+
+	/**
+	 * Remember the best tour of this iteration and of the whole run
+	 */
+	void updateBest() {
+		iterationBest = 0;
+		double sum = ants[0].tourLength;
+		for (int ai = 1; ai < ants.length; ai++) {
+			if (ants[ai].tourLength < ants[iterationBest].tourLength)
+				iterationBest = ai;
+			sum += ants[ai].tourLength;
+		}
+		meanTourLength = sum / ants.length;
+
+		Ant ant = ants[iterationBest];
+		if (ant.tourLength < bestPathLength) {
+			improved(ant.tourLength, false);
+			bestPathLength = ant.tourLength;
+			bestIndex = iterationBest;
+			improvedAt = iteration;
+			for(int pi = 0; pi < cities.length; pi++) // copy best path
+				bestPath[pi] = ant.path[pi];
+		}
+	}
+
+	/**
+	 * Record a shorter tour in the flight recorder, before it replaces the
+	 * best tour
+	 */
+	void improved(double length, boolean adopted) {
+		Events.BestTour event = new Events.BestTour();
+		if (event.shouldCommit()) {
+			event.solver = "AntAlgorithm";
+			event.iteration = iteration;
+			event.previousLength = bestPathLength;
+			event.length = length;
+			event.adopted = adopted;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Take over a better tour found elsewhere, for example by another colony
+	 * of an island model. MAX-MIN and Ant Colony System deposit on the best
+	 * tour anyway; Ant System has no such deposit, so the tour lays its
+	 * pheromone once like an extra ant.
+	 */
+	void adoptTour(int[] path, double length) {
+		improved(length, true);
+		System.arraycopy(path, 0, bestPath, 0, bestPath.length);
+		bestPathLength = length;
+		improvedAt = iteration;
+		if (engine != Engine.ANT_SYSTEM)
+			return;
+
+		for (int i = 0; i < path.length; i++)
+			pheromone.addSymmetric(path[i], path[(i + 1) % path.length],
+					(qval / length) * rho);
+		computeChoiceInformation();
+		restartAnts(); // their candidate totals came from the old trails
+	}
+
+	/**
+	 * @return pheromone on every candidate edge, in candidate list order, to
+	 *         share with colonies that built the same candidate lists
+	 */
+	float[] trailSummary() {
+		int k = nnList[0].length;
+		float[] summary = new float[trailSummaryLength()];
+		for (int from = 0; from < cities.length; from++)
+			for (int i = 0; i < k; i++)
+				summary[from * k + i] = (float) trail(from, nnList[from][i]);
+		return summary;
+	}
+
+	/**
+	 * @return number of entries of a trail summary
+	 */
+	int trailSummaryLength() {
+		return cities.length * nnList[0].length;
+	}
+
+	/**
+	 * Pull the candidate edge trails towards a summary of other colonies,
+	 * see trailSummary
+	 * 
+	 * @param weight
+	 *            share of the summary, 0 keeps the own trails
+	 */
+	void blendTrails(float[] summary, double weight) {
+		int k = nnList[0].length;
+		if (summary.length != cities.length * k)
+			throw new IllegalArgumentException("trail summary of "
+					+ summary.length + " edges, expected " + cities.length * k);
+
+		for (int from = 0; from < cities.length; from++) {
+			for (int i = 0; i < k; i++) {
+				int to = nnList[from][i];
+				// an edge in both lists is blended once, from its lower city
+				if (to < from && contains(nnList[to], from))
+					continue;
+				double tau = (1.0 - weight) * trail(from, to)
+						+ weight * summary[from * k + i];
+				pheromone.setSymmetric(from, to, tau);
+			}
+		}
+		computeChoiceInformation();
+		restartAnts();
+	}
+
+	static boolean contains(int[] candidates, int city) {
+		for (int c : candidates)
+			if (c == city)
+				return true;
+		return false;
 	}
 
 	/**
@@ -85,23 +464,91 @@ public class AntAlgorithm {
 		
 		int ai;
 		
-		for(ai = 0; ai < ants.length; ai++) {
-			Ant ant  = ants[ai];
-			
-			System.out.println("Tour Length of " + ant.tourLength + " vs best of " + bestPathLength);
-			
-			if(ant.tourLength < bestPathLength) {
-				bestPathLength = ant.tourLength;
-				bestIndex = ai;
-				for(int pi = 0; pi < cities.length; pi++) // copy best path
-					bestPath[pi] = ant.path[pi];
-			}
-			
-			ant.reset(cities.length, ai);
-			
+		for(ai = 0; ai < ants.length; ai++)
+			restartAnt(ai);
+	}
+
+	/**
+	 * Put an ant back on a start city with an empty tour
+	 * 
+	 * @param k
+	 *            index of the ant
+	 */
+	void restartAnt(int k) {
+		Ant ant = ants[k];
+		ant.reset(cities.length, startCity(ant, k));
+		startAnt(ant);
+	}
+
+	/**
+	 * @return one ant per city, or random cities for a smaller colony
+	 */
+	int startCity(Ant ant, int index) {
+		if (ants.length < cities.length)
+			return ant.random.nextInt(cities.length);
+		return index;
+	}
+
+	/**
+	 * Load the candidate list totals into a freshly reset ant and take its
+	 * start city out of them
+	 */
+	void startAnt(Ant ant) {
+		System.arraycopy(rowTotal, 0, ant.rowMass, 0, rowTotal.length);
+		removeCandidate(ant, ant.curCity);
+	}
+
+	/**
+	 * Keep the denominator of every candidate list up to date once a city
+	 * has been visited, so selection does not have to sum it every step
+	 */
+	void removeCandidate(Ant ant, int city) {
+		int k = nnList[0].length;
+		for (int slot : nnReverse[city]) {
+			int row = slot / k;
+			ant.rowMass[row] -= nnChoice[row][slot - row * k];
 		}
 	}
 	
+	/**
+	 * Compute eta^beta for every edge. The 0.1 offset keeps cities placed on
+	 * top of each other from producing an infinite heuristic.
+	 */
+	void computeHeuristic() {
+		if (heuristic instanceof ComputedMatrix)
+			return; // computed when read
+		for (int from = 0; from < cities.length; from++) {
+			for (int to = from; to < cities.length; to++) {
+				heuristic.setSymmetric(from, to, FastPow.pow(
+						1.0 / (distance.get(from, to) + 0.1), beta));
+			}
+		}
+	}
+
+	/**
+	 * Combine the current pheromone levels with the heuristic, so selection
+	 * never has to call Math.pow. Called once per iteration after the trails
+	 * have been updated. With lazy evaporation only the candidate edges are
+	 * refreshed, which keeps the iteration free of O(n^2) work.
+	 */
+	void computeChoiceInformation() {
+		if (choiceInfo != null)
+			choiceInfo.setChoice(pheromone, tauMin, alpha, heuristic); // see trail()
+
+		// candidate edges, their totals and alias tables
+		for (int from = 0; from < cities.length; from++) {
+			int[] candidates = nnList[from];
+			double total = 0.0;
+			for (int i = 0; i < candidates.length; i++) {
+				nnChoice[from][i] = antProduct(from, candidates[i]);
+				total += nnChoice[from][i];
+			}
+			rowTotal[from] = total;
+			if (aliasTables != null)
+				aliasTables[from].build(nnChoice[from]);
+		}
+	}
+
 	/**
 	 * @param from
 	 *            city index ant is currently in
@@ -111,50 +558,168 @@ public class AntAlgorithm {
 	 */
 	double antProduct(int from, int to) {
 	
-		return ((Math.pow(pheromone[from][to], ALPHA)) * (Math.pow(
-				(1.0 / distance[from][to]), BETA)));
+		if (choiceInfo != null)
+			return choiceInfo.get(from, to);
+		return FastPow.pow(trail(from, to), alpha) * heuristic.get(from, to);
+	}
+
+	/**
+	 * @return pheromone on the edge. MAX-MIN trails that evaporated below
+	 *         tauMin read as tauMin, which saves clamping every edge each
+	 *         iteration (tauMin never decreases during a run).
+	 */
+	double trail(int from, int to) {
+		return Math.max(pheromone.get(from, to), tauMin);
 	}
 
 	/**
 	 * Using the path probability selection algorithm and the current pheromone
-	 * levels of the graph, select the next city the ant will travel to
+	 * levels of the graph, select the next city the ant will travel to. Only
+	 * the candidate list of the current city is considered, unless every
+	 * candidate has already been visited.
 	 * 
 	 * @param ant
 	 *            index
 	 * @return city index ant has decided to go
 	 */
 	int selectNextCity(Ant ant) {
-		int from, to;
-		
-		double denom = 0.0;
+		if (engine == Engine.ANT_COLONY_SYSTEM)
+			return selectNextCityColonySystem(ant);
 
-		from = ant.curCity;
+		int from = ant.curCity;
+		int to = -1;
+		int[] candidates = nnList[from];
+		double denom = ant.rowMass[from];
 
-		// compute denom
-		for (to = 0; to < cities.length; to++) {
-			if (ant.tabu[to] == 0) {
-				denom += antProduct(from, to);
-			}
+		// all candidates visited, leave the list
+		if (denom <= 0.0)
+			return selectBestCity(ant);
+
+		switch (sampling) {
+		case ALIAS:
+			to = candidates[aliasTables[from].sample(ant.random.nextDouble())];
+			if (!ant.tabu[to])
+				return to;
+			// hit a visited city, redraw among the unvisited ones
+			to = Sampler.cumulative(candidates, nnChoice[from], ant.tabu,
+					denom, ant.random.nextDouble());
+			break;
+		case BINARY_SEARCH:
+			to = Sampler.binarySearch(candidates, nnChoice[from], ant.tabu,
+					ant.prefix, ant.slots, ant.random.nextDouble());
+			break;
+		case CUMULATIVE:
+			to = Sampler.cumulative(candidates, nnChoice[from], ant.tabu,
+					denom, ant.random.nextDouble());
+			break;
 		}
 
-		assert denom != 0.0;
+		// rounding left a denominator although the list is used up
+		if (to == -1)
+			return selectBestCity(ant);
+		return to;
+	}
 
-		do {
-			double p;
-			to++;
-			if (to >= cities.length)
-				to = 0;
-			if (ant.tabu[to] == 0) {
-				p = antProduct(from, to) / denom;
-				double num = Math.random();
-				if (num < p)
-					break;
+	/**
+	 * Ant Colony System pseudo-random-proportional rule: with probability q0
+	 * take the best unvisited candidate, otherwise use the roulette wheel.
+	 * Local updates change the weights while ants move, so the denominator
+	 * is summed every step instead of using the ant's cached totals.
+	 * 
+	 * @param ant
+	 *            index
+	 * @return city index ant has decided to go
+	 */
+	int selectNextCityColonySystem(Ant ant) {
+		int from = ant.curCity;
+		int[] candidates = nnList[from];
+		double[] weights = nnChoice[from];
+		int to = -1;
+
+		if (ant.random.nextDouble() < q0) {
+			double best = -1.0;
+			for (int i = 0; i < candidates.length; i++) {
+				if (!ant.tabu[candidates[i]] && weights[i] > best) {
+					best = weights[i];
+					to = candidates[i];
+				}
 			}
-		} while (true);
+		} else {
+			double denom = 0.0;
+			for (int i = 0; i < candidates.length; i++) {
+				if (!ant.tabu[candidates[i]])
+					denom += weights[i];
+			}
+			if (denom > 0.0)
+				to = Sampler.cumulative(candidates, weights, ant.tabu, denom,
+						ant.random.nextDouble());
+		}
 
+		if (to == -1)
+			return selectBestCity(ant);
 		return to;
 	}
 
+	/**
+	 * Ant Colony System local update, pulls the trail of an edge an ant just
+	 * used back towards tau0 so the following ants try other edges. It
+	 * writes trails during construction, which is why Ant Colony System
+	 * builds its tours on a single thread, see constructionThreads.
+	 */
+	void localUpdate(int from, int to) {
+		double tau = (1.0 - xi) * trail(from, to) + xi * tau0;
+		pheromone.setSymmetric(from, to, tau);
+
+		double value = FastPow.pow(tau, alpha) * heuristic.get(from, to);
+		if (choiceInfo != null)
+			choiceInfo.setSymmetric(from, to, value);
+		updateCandidateChoice(from, to, value);
+		updateCandidateChoice(to, from, value);
+	}
+
+	void updateCandidateChoice(int from, int to, double value) {
+		int[] candidates = nnList[from];
+		for (int i = 0; i < candidates.length; i++) {
+			if (candidates[i] == to) {
+				nnChoice[from][i] = value;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Fallback once the candidate list of the current city is exhausted
+	 * 
+	 * @param ant
+	 *            index
+	 * @return unvisited city with the highest edge product, the nearest of
+	 *         them on a tie. Ant System trails of unused edges underflow to
+	 *         zero, and then only the distance tells the cities apart.
+	 */
+	int selectBestCity(Ant ant) {
+		int from = ant.curCity;
+		int best = -1;
+		double bestProduct = -1.0;
+		double bestDistance = Double.MAX_VALUE;
+
+		for (int to = 0; to < cities.length; to++) {
+			if (!ant.tabu[to]) {
+				double product = antProduct(from, to);
+				if (product < bestProduct)
+					continue;
+				double d = distance.get(from, to);
+				if (product > bestProduct || d < bestDistance) {
+					bestProduct = product;
+					bestDistance = d;
+					best = to;
+				}
+			}
+		}
+
+		assert best != -1;
+		return best;
+	}
+
 	/**
 	 * Simulate a single step for each ant in the population
 	 * 
@@ -170,18 +735,7 @@ public class AntAlgorithm {
 			
 			// ensure this ant still has cities to visit
 			if (ant.pathIndex < cities.length) {
-				ant.nextCity = selectNextCity(ant);
-				ant.tabu[ant.nextCity] = 1;
-				ant.path[ant.pathIndex++] = ant.nextCity;
-				ant.tourLength += distance[ant.curCity][ant.nextCity];
-
-				// Handle the final case (last city to first)
-				if (ant.pathIndex == cities.length) {
-					ant.tourLength += distance[ant.path[cities.length - 1]][ant.path[0]];
-				}
-
-				ant.curCity = ant.nextCity;
-
+				moveAnt(ant);
 				moving++;
 			}
 		}
@@ -189,22 +743,110 @@ public class AntAlgorithm {
 		return moving;
 	}
 
+	/**
+	 * Move the ant to its next city
+	 * 
+	 * @param ant
+	 *            index
+	 */
+	void moveAnt(Ant ant) {
+		ant.nextCity = selectNextCity(ant);
+		ant.tabu[ant.nextCity] = true;
+		removeCandidate(ant, ant.nextCity);
+		ant.path[ant.pathIndex++] = ant.nextCity;
+		ant.tourLength += distance.get(ant.curCity, ant.nextCity);
+
+		if (engine == Engine.ANT_COLONY_SYSTEM)
+			localUpdate(ant.curCity, ant.nextCity);
+
+		// Handle the final case (last city to first)
+		if (ant.pathIndex == cities.length) {
+			ant.tourLength += distance.get(ant.path[cities.length - 1], ant.path[0]);
+			if (engine == Engine.ANT_COLONY_SYSTEM)
+				localUpdate(ant.nextCity, ant.path[0]);
+		}
+
+		ant.curCity = ant.nextCity;
+	}
+
+	/**
+	 * Let every ant build a complete tour. With more than one thread each
+	 * worker builds whole tours for its slice of the colony; pheromone and
+	 * choice information are only read until all workers have finished.
+	 */
+	void constructTours() {
+		if (constructionThreads() <= 1) {
+			while (simulateAnts() != 0)
+				;
+			return;
+		}
+
+		if (workers == null)
+			workers = new Workers(threads);
+		workers.run(ants.length, this::completeTour);
+	}
+
+	/**
+	 * @return threads that build tours. The local update of Ant Colony
+	 *         System writes trails and choice information while the ants
+	 *         move, so its ants always take their steps in turn on the
+	 *         calling thread; the local search still uses every thread.
+	 */
+	int constructionThreads() {
+		return (engine == Engine.ANT_COLONY_SYSTEM) ? 1 : threads;
+	}
+
+	/**
+	 * Move an ant until its tour is complete
+	 * 
+	 * @param k
+	 *            index of the ant
+	 */
+	void completeTour(int k) {
+		Ant ant = ants[k];
+		while (ant.pathIndex < cities.length)
+			moveAnt(ant);
+	}
+
 	/**
 	 * Update the pheromone trails on each arc based on the number of ants that
 	 * have traveled over it, including the evaporation of existing pheromones
 	 */
 	void updateTrails() {
-		int from, to;
+		Events.PheromoneUpdate event = new Events.PheromoneUpdate();
+		event.begin();
+		long t = System.nanoTime();
 		
-		// Pheromone evaporation
-		for(from = 0; from < cities.length; from++) {
-			for(to = 0; to < cities.length; to++) {
-				if(from != to) {
-					pheromone[from][to] *= (1.0 - RHO);
-					if(pheromone[from][to] < 0.0) pheromone[from][to] = INIT_PHEROMONE; 
-				}
-			}
+		if (engine == Engine.ANT_COLONY_SYSTEM) {
+			updateTrailsColonySystem();
+		} else {
+			// Pheromone evaporation, only a clock tick with lazy evaporation
+			pheromone.scale(1.0 - rho);
+			if (metrics != null)
+				t = metrics.evaporation.since(t);
+			
+			if (engine == Engine.MAX_MIN_ANT_SYSTEM)
+				updateTrailsMaxMin();
+			else
+				updateTrailsAntSystem();
 		}
+		if (metrics != null)
+			metrics.deposit.since(t);
+
+		if (event.shouldCommit()) {
+			event.solver = "AntAlgorithm";
+			event.iteration = iteration;
+			event.update = engine.name();
+			event.commit();
+		}
+	}
+
+	/**
+	 * Ant System deposit: every ant adds pheromone to the edges of its tour,
+	 * more for shorter tours
+	 */
+	void updateTrailsAntSystem() {
+		int from, to;
 		
 		// add new pheromone to the trails
 		// look at the tours of each ant
@@ -220,40 +862,213 @@ public class AntAlgorithm {
 					to = ant.path[0];
 				}
 				
-				pheromone[from][to] += ((QVAL / ant.tourLength) * RHO);
-				pheromone[to][from] = pheromone[from][to];
+				pheromone.addSymmetric(from, to, ((qval / ant.tourLength) * rho));
 			}
 		}
 	}
 
-	
+	/**
+	 * MAX-MIN Ant System deposit: only the iteration-best tour, or every
+	 * globalBestEvery iterations the global-best tour, adds pheromone. The
+	 * trails are reinitialised when the colony has converged and the best
+	 * tour has not improved for a while.
+	 */
+	void updateTrailsMaxMin() {
+		updateTrailLimits(bestPathLength);
+
+		if (iteration % stagnationCheck == 0
+				&& iteration - improvedAt > stagnationIterations
+				&& branchingFactor(0.05) < 1.00001) {
+			pheromone.fill(tauMax);
+			improvedAt = iteration;
+			return;
+		}
+
+		int[] path = ants[iterationBest].path;
+		double length = ants[iterationBest].tourLength;
+		if (iteration % globalBestEvery == 0) {
+			path = bestPath;
+			length = bestPathLength;
+		}
+
+		double deposit = 1.0 / length;
+		for (int i = 0; i < path.length; i++) {
+			int from = path[i];
+			int to = path[(i + 1) % path.length];
+			// trails below tauMin count as tauMin, see trail()
+			double tau = Math.min(trail(from, to) + deposit, tauMax);
+			pheromone.setSymmetric(from, to, tau);
+		}
+	}
+
+	/**
+	 * Ant Colony System global update: only the edges of the global-best
+	 * tour evaporate and receive pheromone
+	 */
+	void updateTrailsColonySystem() {
+		double deposit = rho / bestPathLength;
+		for (int i = 0; i < bestPath.length; i++) {
+			int from = bestPath[i];
+			int to = bestPath[(i + 1) % bestPath.length];
+			pheromone.setSymmetric(from, to,
+					(1.0 - rho) * trail(from, to) + deposit);
+		}
+	}
+
+	/**
+	 * Average number of candidate edges per city whose pheromone is above
+	 * min + lambda * (max - min) of that candidate list, relative to the
+	 * number of cities. A value close to 1 means the colony has converged.
+	 */
+	double branchingFactor(double lambda) {
+		double branches = 0.0;
+
+		for (int from = 0; from < cities.length; from++) {
+			double min = Double.MAX_VALUE, max = 0.0;
+			for (int to : nnList[from]) {
+				double tau = trail(from, to);
+				min = Math.min(min, tau);
+				max = Math.max(max, tau);
+			}
+			double cutoff = min + lambda * (max - min);
+			for (int to : nnList[from]) {
+				if (trail(from, to) >= cutoff)
+					branches++;
+			}
+		}
+		return branches / (cities.length * 2.0);
+	}
+
+	/**
+	 * Run the local search on every ant's tour, in parallel when there are
+	 * several threads. The tour lengths are reduced by the gains of the
+	 * applied moves rather than recomputed.
+	 */
+	void improveTours() {
+		if (localSearch == LocalSearch.NONE)
+			return;
+
+		if (threads <= 1) {
+			for (Ant ant : ants)
+				improveTour(ant);
+			return;
+		}
+
+		if (workers == null)
+			workers = new Workers(threads);
+		workers.run(ants.length, k -> improveTour(ants[k]));
+	}
+
+	void improveTour(Ant ant) {
+		switch (localSearch) {
+		case TWO_OPT:
+			ant.tourLength = twoOpt.get().improve(ant.path, ant.tourLength);
+			break;
+		case OR_OPT:
+		case OR_2OPT:
+			ant.tourLength = orOpt.get().improve(ant.path, ant.tourLength);
+			break;
+		case NONE:
+			break;
+		}
+	}
+
+	/**
+	 * One colony iteration: build the tours, improve them, update the trails
+	 * and get the ants ready for the next round
+	 */
+	void iterate() {
+		Events.Iteration event = new Events.Iteration();
+		event.begin();
+		iteration++;
+		long t = System.nanoTime();
+		Events.Construction construction = new Events.Construction();
+		construction.begin();
+		constructTours();
+		if (construction.shouldCommit()) {
+			construction.solver = "AntAlgorithm";
+			construction.iteration = iteration;
+			construction.ants = ants.length;
+			construction.threads = constructionThreads();
+			construction.commit();
+		}
+		if (metrics != null)
+			t = metrics.construction.since(t);
+		improveTours();
+		if (metrics != null)
+			metrics.localSearch.since(t);
+		updateBest();
+		updateTrails();
+		t = System.nanoTime();
+		computeChoiceInformation();
+		if (metrics != null) {
+			metrics.choice.since(t);
+			metrics.iteration(ants.length);
+		}
+		restartAnts();
+
+		if (event.shouldCommit()) {
+			event.solver = "AntAlgorithm";
+			event.iteration = iteration;
+			event.bestLength = bestPathLength;
+			event.meanLength = meanTourLength;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Run the colony on randomly placed cities
+	 * @param nCities number of cities
+	 */
 	public void start(int nCities) {
-		
+		random = new SplittableRandom(seed);
+		start(Instance.random(nCities, Instance.DEFAULT_MAP_SIZE, random));
+	}
+
+	/**
+	 * Run the colony on the given instance, for example one read by
+	 * TsplibReader
+	 */
+	public void start(Instance instance) {
+		int nCities = instance.size();
 
 		int MAX_TIME = 20 * nCities;
-		int curTime = 0;
-		init(nCities);
+		int iterations = MAX_TIME * 100 / nCities;
+		init(instance);
 		
-		// check ant data
-		for(Ant ant : ants) System.out.println(ant.toString());
-		
-		while(curTime++ < MAX_TIME * 100) {
-			
-			if(simulateAnts() == 0) {
-				updateTrails();
-				
-				if(curTime != MAX_TIME) restartAnts();
+		for(int curTime = 1; curTime <= iterations; curTime++) {
+			double before = bestPathLength;
+			iterate();
+			if (bestPathLength < before) // progress, see setMetrics for more
 				System.out.println("Time is " + curTime + " " + bestPathLength);
-			}
+		}
+		
+		if(workers != null) {
+			workers.shutdown();
+			workers = null;
 		}
 		
 		System.out.println("Best Tour: " + bestPathLength);
 		for(int i : bestPath) System.out.print(i + " ");
 	}
 
-	public static void main(String[] args) {
+	public static void main(String[] args) throws IOException {
 		AntAlgorithm antAlgorithm = new AntAlgorithm();
-		antAlgorithm.start(10);
+		if(args.length > 0) antAlgorithm.threads = Integer.parseInt(args[0]);
+		if(args.length > 1) antAlgorithm.setEngine(Engine.valueOf(args[1]));
+		HttpServer server = null;
+		if(args.length > 3) {
+			// scrape http://localhost:<port>/metrics while the colony runs
+			Metrics registry = new Metrics();
+			antAlgorithm.setMetrics(registry, "0");
+			server = registry.serve(Integer.parseInt(args[3]));
+		}
+		try {
+			if(args.length > 2) antAlgorithm.start(TsplibReader.read(args[2]));
+			else antAlgorithm.start(10);
+		} finally {
+			if(server != null) server.stop(0);
+		}
 	}
 	
 }
@@ -264,13 +1079,17 @@ public class AntAlgorithm {
 
 class Ant {
 	int curCity, nextCity;
-	double[] tabu;
+	boolean[] tabu;
 	int[] path;
 	int pathIndex;
 	double tourLength;
+	SplittableRandom random;
+	double[] rowMass; // unvisited choice information left in each candidate list
+	double[] prefix; // scratch space for binary search sampling
+	int[] slots;
 
 	Ant(int nCities, int index) {
-		tabu = new double[nCities];
+		tabu = new boolean[nCities];
 		path = new int[nCities];
 		reset(nCities, index);
 	}
@@ -278,7 +1097,7 @@ class Ant {
 	public void reset(int nCities, int index) {
 		
 		for (int from = 0; from < nCities; from++) {
-			tabu[from] = 0;
+			tabu[from] = false;
 			path[from] = -1;
 		}
 
@@ -289,7 +1108,7 @@ class Ant {
 		tourLength = 0.0;
 
 		// load the ant's current city into taboo
-		tabu[curCity] = 1;
+		tabu[curCity] = true;
 	}
 	
 	public String toString() {
@@ -298,7 +1117,7 @@ class Ant {
 }
 
 class City {
-	public static final int MAP_SIZE = 200;
+	public static final int MAP_SIZE = Instance.DEFAULT_MAP_SIZE;
 	int x, y;
 
 	// constructs a randomly placed city
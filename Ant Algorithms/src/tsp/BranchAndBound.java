@@ -0,0 +1,533 @@
+package tsp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exact branch-and-bound solver for instances too large for HeldKarp. The
+ * lower bound of a node is the Held-Karp 1-tree bound: a minimum spanning
+ * tree on cities 1..n-1 plus the two cheapest edges of city 0, with node
+ * penalties pi tuned by subgradient optimisation. A node branches on a
+ * tree edge at a city of degree above two, forbidding it in one child and
+ * forcing it in the other. Children start from the penalties of their
+ * parent, and subtrees are explored in parallel on a ForkJoinPool.
+ * <p>
+ * Seeding the solver with a good tour, such as AntAlgorithm.bestPath or
+ * ACO.best_tour_history, lets it prune from the start; the result is then
+ * either that tour, certified optimal, or a shorter one.
+ */
+public class BranchAndBound {
+
+	static final byte FREE = 0, FORCED = 1, FORBIDDEN = 2;
+	static final double EPSILON = 1e-9;
+	static final int ROOT_ITERATIONS = 1000;
+	static final int NODE_ITERATIONS = 50;
+
+	final int threads;
+	int n;
+	double[][] d;
+	boolean integral; // all distances are whole numbers, bounds round up
+
+	volatile double best;
+	int[] bestTour;
+	final AtomicLong nodes = new AtomicLong();
+	double rootBound;
+
+	public BranchAndBound(int threads) {
+		this.threads = threads;
+	}
+
+	public BranchAndBound() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public double getLength() {
+		return best;
+	}
+
+	/**
+	 * @return an optimal tour, starting at city 0
+	 */
+	public int[] getTour() {
+		return bestTour;
+	}
+
+	/**
+	 * @return number of branch-and-bound nodes evaluated
+	 */
+	public long getNodes() {
+		return nodes.get();
+	}
+
+	/**
+	 * @return 1-tree bound of the root, a lower bound on the optimum
+	 */
+	public double getRootBound() {
+		return rootBound;
+	}
+
+	/**
+	 * Find an optimal tour
+	 *
+	 * @param incumbent
+	 *            a known tour to start from, or null; the nearest
+	 *            neighbour tour improved by 2-opt is tried as well
+	 * @return its length, see also {@link #getTour()}
+	 * @throws IllegalArgumentException
+	 *             if the incumbent is not a permutation of the cities
+	 */
+	public double solve(Matrix distance, int[] incumbent) {
+		n = distance.size();
+		d = new double[n][n];
+		integral = true;
+		for (int i = 0; i < n; i++)
+			for (int j = 0; j < n; j++) {
+				d[i][j] = distance.get(i, j);
+				integral &= d[i][j] == Math.rint(d[i][j]);
+			}
+		nodes.set(0);
+
+		best = Double.MAX_VALUE;
+		bestTour = null;
+		if (incumbent != null)
+			offer(checkTour(incumbent));
+		offer(nearestNeighbourTour());
+		rootBound = best;
+		if (n <= 3)
+			return best;
+		offer(twoOptTour(distance));
+
+		byte[] state = new byte[n * n];
+		for (int i = 0; i < n; i++)
+			state[i * n + i] = FORBIDDEN;
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(new Node(state, new double[n], true));
+		} finally {
+			pool.shutdown();
+		}
+		return best;
+	}
+
+	int[] nearestNeighbourTour() {
+		int[] tour = new int[n];
+		boolean[] visited = new boolean[n];
+		visited[0] = true;
+		for (int i = 1; i < n; i++) {
+			int cur = tour[i - 1], next = -1;
+			for (int to = 0; to < n; to++)
+				if (!visited[to] && (next == -1 || d[cur][to] < d[cur][next]))
+					next = to;
+			tour[i] = next;
+			visited[next] = true;
+		}
+		return tour;
+	}
+
+	/**
+	 * @return the nearest neighbour tour improved by 2-opt, so branching
+	 *         starts with an incumbent close to the optimum even without a
+	 *         colony run before
+	 */
+	int[] twoOptTour(Matrix distance) {
+		int[] tour = nearestNeighbourTour();
+		double length = 0.0;
+		for (int i = 0; i < n; i++)
+			length += d[tour[i]][tour[(i + 1) % n]];
+		new TwoOpt(distance, CandidateLists.build(distance, AntAlgorithm.NN_SIZE))
+				.improve(tour, length);
+		return tour;
+	}
+
+	/**
+	 * @return the tour, if it visits every city once
+	 */
+	int[] checkTour(int[] tour) {
+		if (tour.length != n)
+			throw new IllegalArgumentException("tour of " + tour.length
+					+ " cities, expected " + n);
+		boolean[] seen = new boolean[n];
+		for (int city : tour) {
+			if (city < 0 || city >= n)
+				throw new IllegalArgumentException("city " + city + " of " + n);
+			if (seen[city])
+				throw new IllegalArgumentException("city " + city + " visited twice");
+			seen[city] = true;
+		}
+		return tour;
+	}
+
+	/**
+	 * Keep the tour if it beats the incumbent
+	 */
+	synchronized void offer(int[] tour) {
+		double length = 0.0;
+		for (int i = 0; i < n; i++)
+			length += d[tour[i]][tour[(i + 1) % n]];
+		if (length < best) {
+			// rotate so the tour starts at city 0
+			int start = 0;
+			while (tour[start] != 0)
+				start++;
+			bestTour = new int[n];
+			for (int i = 0; i < n; i++)
+				bestTour[i] = tour[(start + i) % n];
+			best = length;
+		}
+	}
+
+	/**
+	 * @return true if no tour within the bound can beat the incumbent
+	 */
+	boolean prune(double bound) {
+		bound = lowerBound(bound);
+		return bound >= best - EPSILON * Math.max(1.0, Math.abs(best));
+	}
+
+	/**
+	 * @return the 1-tree bound, rounded up to the next whole number when
+	 *         every tour length is one
+	 */
+	double lowerBound(double bound) {
+		return integral ? Math.ceil(bound - 1e-6) : bound;
+	}
+
+	/**
+	 * A subproblem: every edge is free, forced into the tour or forbidden
+	 */
+	class Node extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		final byte[] state; // n x n, symmetric
+		final double[] pi;
+		final boolean root;
+
+		Node(byte[] state, double[] pi, boolean root) {
+			this.state = state;
+			this.pi = pi;
+			this.root = root;
+		}
+
+		@Override
+		protected void compute() {
+			nodes.incrementAndGet();
+			OneTree tree = bound(state, pi, root ? ROOT_ITERATIONS : NODE_ITERATIONS);
+			if (root)
+				rootBound = (tree != null) ? Math.min(lowerBound(tree.bound), best) : best;
+			if (tree == null || prune(tree.bound))
+				return;
+			if (tree.isTour()) {
+				offer(tree.tour());
+				return;
+			}
+
+			// branch on the dearest free tree edge at the city of highest degree
+			int v = 0;
+			for (int i = 1; i < n; i++)
+				if (tree.deg[i] > tree.deg[v])
+					v = i;
+			int edge = -1;
+			double cost = -Double.MAX_VALUE;
+			for (int e = 0; e < n; e++) {
+				int a = tree.a[e], b = tree.b[e];
+				if ((a == v || b == v) && state[a * n + b] == FREE
+						&& tree.cost(a, b) > cost) {
+					cost = tree.cost(a, b);
+					edge = e;
+				}
+			}
+			if (edge == -1)
+				return; // cannot happen with consistent propagation
+
+			List<Node> children = new ArrayList<>(2);
+			for (byte choice : new byte[] { FORBIDDEN, FORCED }) {
+				byte[] s = state.clone();
+				set(s, tree.a[edge], tree.b[edge], choice);
+				if (propagate(s))
+					children.add(new Node(s, tree.pi.clone(), false));
+			}
+			invokeAll(children);
+		}
+	}
+
+	void set(byte[] state, int a, int b, byte value) {
+		state[a * n + b] = value;
+		state[b * n + a] = value;
+	}
+
+	/**
+	 * Apply the degree constraints until nothing changes: a city with two
+	 * forced edges loses its free ones, a city with only two usable edges
+	 * must use both.
+	 *
+	 * @return false if the node has no tour
+	 */
+	boolean propagate(byte[] state) {
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int v = 0; v < n; v++) {
+				int forced = 0, free = 0;
+				for (int u = 0; u < n; u++) {
+					byte s = state[v * n + u];
+					if (s == FORCED)
+						forced++;
+					else if (s == FREE)
+						free++;
+				}
+				if (forced > 2 || forced + free < 2)
+					return false;
+				if (free > 0 && (forced == 2 || forced + free == 2)) {
+					byte value = (forced == 2) ? FORBIDDEN : FORCED;
+					for (int u = 0; u < n; u++)
+						if (state[v * n + u] == FREE)
+							set(state, v, u, value);
+					changed = true;
+				}
+			}
+		}
+		return !closesSubtour(state);
+	}
+
+	/**
+	 * @return true if the forced edges contain a cycle shorter than a tour
+	 */
+	boolean closesSubtour(byte[] state) {
+		int[] root = new int[n];
+		for (int i = 0; i < n; i++)
+			root[i] = i;
+		int edges = 0;
+		boolean cycle = false;
+		for (int a = 0; a < n; a++)
+			for (int b = a + 1; b < n; b++) {
+				if (state[a * n + b] != FORCED)
+					continue;
+				edges++;
+				int ra = find(root, a), rb = find(root, b);
+				if (ra == rb)
+					cycle = true;
+				else
+					root[ra] = rb;
+			}
+		return cycle && edges < n;
+	}
+
+	static int find(int[] root, int i) {
+		while (root[i] != i) {
+			root[i] = root[root[i]];
+			i = root[i];
+		}
+		return i;
+	}
+
+	/**
+	 * Subgradient optimisation of the 1-tree bound
+	 *
+	 * @param pi
+	 *            penalties to start from
+	 * @return the tree with the best bound, null if the node has no tour
+	 */
+	OneTree bound(byte[] state, double[] pi, int iterations) {
+		pi = pi.clone();
+		OneTree best = null;
+		double lambda = 2.0;
+		int stale = 0;
+
+		for (int it = 0; it < iterations && lambda > 1e-6; it++) {
+			OneTree tree = oneTree(state, pi);
+			if (tree == null)
+				return null;
+			if (tree.isTour())
+				return tree; // optimal for this node
+			if (best == null || tree.bound > best.bound + EPSILON) {
+				best = tree;
+				stale = 0;
+			} else if (++stale >= Math.max(5, n / 8)) {
+				lambda /= 2.0;
+				stale = 0;
+			}
+			if (prune(best.bound))
+				break;
+
+			double norm = 0.0;
+			for (int v = 0; v < n; v++)
+				norm += (tree.deg[v] - 2) * (tree.deg[v] - 2);
+			double target = (this.best < Double.MAX_VALUE) ? this.best
+					: tree.bound * 1.05 + 1.0;
+			double step = lambda * (target - tree.bound) / norm;
+			pi = pi.clone();
+			for (int v = 0; v < n; v++)
+				pi[v] += step * (tree.deg[v] - 2);
+		}
+		return best;
+	}
+
+	/**
+	 * Minimum 1-tree for the penalised costs d[i][j] + pi[i] + pi[j]. Prim
+	 * on cities 1..n-1 prefers forced edges over any cost, which yields
+	 * the cheapest spanning tree that contains all of them.
+	 *
+	 * @return the tree, null if the usable edges do not span the cities
+	 */
+	OneTree oneTree(byte[] state, double[] pi) {
+		OneTree tree = new OneTree(pi);
+		boolean[] inTree = new boolean[n];
+		boolean[] keyForced = new boolean[n];
+		double[] key = new double[n];
+		int[] link = new int[n];
+
+		inTree[1] = true;
+		for (int v = 2; v < n; v++) {
+			link[v] = -1;
+			relax(state, tree, v, 1, keyForced, key, link);
+		}
+
+		int edges = 0;
+		for (int step = 2; step < n; step++) {
+			int pick = -1;
+			for (int v = 2; v < n; v++) {
+				if (inTree[v] || link[v] == -1)
+					continue;
+				if (pick == -1 || (keyForced[v] && !keyForced[pick])
+						|| (keyForced[v] == keyForced[pick] && key[v] < key[pick]))
+					pick = v;
+			}
+			if (pick == -1)
+				return null;
+			inTree[pick] = true;
+			tree.add(edges++, link[pick], pick);
+			for (int v = 2; v < n; v++)
+				if (!inTree[v])
+					relax(state, tree, v, pick, keyForced, key, link);
+		}
+
+		// the two edges of city 0, forced ones first
+		int first = -1, second = -1;
+		for (int u = 1; u < n; u++) {
+			byte s = state[u];
+			if (s == FORBIDDEN)
+				continue;
+			if (first == -1 || better(s, tree.cost(0, u), state[first], tree.cost(0, first))) {
+				second = first;
+				first = u;
+			} else if (second == -1
+					|| better(s, tree.cost(0, u), state[second], tree.cost(0, second))) {
+				second = u;
+			}
+		}
+		if (second == -1)
+			return null;
+		tree.add(edges++, 0, first);
+		tree.add(edges++, 0, second);
+		tree.finish();
+		return tree;
+	}
+
+	static boolean better(byte s1, double c1, byte s2, double c2) {
+		if (s1 != s2)
+			return s1 == FORCED;
+		return c1 < c2;
+	}
+
+	void relax(byte[] state, OneTree tree, int v, int from, boolean[] keyForced,
+			double[] key, int[] link) {
+		byte s = state[v * n + from];
+		if (s == FORBIDDEN)
+			return;
+		boolean forced = s == FORCED;
+		double c = tree.cost(v, from);
+		if (link[v] == -1 || (forced && !keyForced[v])
+				|| (forced == keyForced[v] && c < key[v])) {
+			link[v] = from;
+			keyForced[v] = forced;
+			key[v] = c;
+		}
+	}
+
+	/**
+	 * A 1-tree: n edges, of which two touch city 0
+	 */
+	class OneTree {
+		final double[] pi;
+		final int[] a = new int[n], b = new int[n];
+		final int[] deg = new int[n];
+		double bound;
+
+		OneTree(double[] pi) {
+			this.pi = pi;
+		}
+
+		double cost(int i, int j) {
+			return d[i][j] + pi[i] + pi[j];
+		}
+
+		void add(int e, int i, int j) {
+			a[e] = i;
+			b[e] = j;
+		}
+
+		void finish() {
+			double sum = 0.0;
+			for (int e = 0; e < n; e++) {
+				sum += cost(a[e], b[e]);
+				deg[a[e]]++;
+				deg[b[e]]++;
+			}
+			for (int v = 0; v < n; v++)
+				sum -= 2.0 * pi[v];
+			bound = sum;
+		}
+
+		boolean isTour() {
+			for (int v = 0; v < n; v++)
+				if (deg[v] != 2)
+					return false;
+			return true;
+		}
+
+		/**
+		 * @return the cities in tour order, for a tree that is a tour
+		 */
+		int[] tour() {
+			int[][] adj = new int[n][2];
+			int[] fill = new int[n];
+			for (int e = 0; e < n; e++) {
+				adj[a[e]][fill[a[e]]++] = b[e];
+				adj[b[e]][fill[b[e]]++] = a[e];
+			}
+			int[] tour = new int[n];
+			int prev = -1, cur = 0;
+			for (int i = 0; i < n; i++) {
+				tour[i] = cur;
+				int next = (adj[cur][0] != prev) ? adj[cur][0] : adj[cur][1];
+				prev = cur;
+				cur = next;
+			}
+			return tour;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		AntAlgorithm antAlgorithm = new AntAlgorithm();
+		antAlgorithm.setEngine(Engine.MAX_MIN_ANT_SYSTEM);
+		if (args.length > 0)
+			antAlgorithm.start(TsplibReader.read(args[0]));
+		else
+			antAlgorithm.start(40);
+		System.out.println();
+
+		BranchAndBound bnb = new BranchAndBound();
+		double optimum = bnb.solve(antAlgorithm.distance, antAlgorithm.bestPath);
+		System.out.println("Colony: " + antAlgorithm.bestPathLength
+				+ " optimum: " + optimum + " gap: "
+				+ 100.0 * (antAlgorithm.bestPathLength - optimum) / optimum
+				+ "% nodes: " + bnb.getNodes());
+		for (int city : bnb.getTour())
+			System.out.print(city + " ");
+		System.out.println();
+	}
+}
@@ -0,0 +1,132 @@
+package tsp;
+
+/**
+ * Builds nearest-neighbour candidate lists. Each city keeps the k closest
+ * cities, sorted by increasing distance, so tour construction only has to
+ * look at a handful of cities per step instead of the whole map.
+ */
+public class CandidateLists {
+
+	/**
+	 * @param distance
+	 *            distance between every pair of cities
+	 * @param k
+	 *            number of neighbours to keep for every city
+	 * @return candidate list of each city, nearest first
+	 */
+	public static int[][] build(Matrix distance, int k) {
+		int n = distance.size();
+		k = Math.min(k, n - 1);
+		int[][] nnList = new int[n][];
+		double[] best = new double[k];
+
+		for (int from = 0; from < n; from++) {
+			int[] row = new int[k];
+			int size = 0;
+			for (int to = 0; to < n; to++) {
+				if (to == from)
+					continue;
+				size = insert(row, best, size, to, distance.get(from, to));
+			}
+			nnList[from] = row;
+		}
+		return nnList;
+	}
+
+	/**
+	 * Same lists as {@link #build(Matrix, int)}, found with a k-d tree in
+	 * O(n k log n) instead of scanning every pair of cities
+	 */
+	public static int[][] build(KdTree tree, int k) {
+		int n = tree.n;
+		k = Math.min(k, n - 1);
+		int[][] nnList = new int[n][];
+		double[] best = new double[k];
+
+		for (int from = 0; from < n; from++) {
+			nnList[from] = new int[k];
+			tree.nearest(from, nnList[from], best);
+		}
+		return nnList;
+	}
+
+	/**
+	 * For every city, list the candidate list slots it appears in. A slot is
+	 * encoded as row * k + position, where k is the candidate list length.
+	 *
+	 * @param nnList
+	 *            candidate lists, all of the same length
+	 * @return slots holding each city
+	 */
+	public static int[][] reverse(int[][] nnList) {
+		int n = nnList.length;
+		int k = nnList[0].length;
+		int[] count = new int[n];
+		for (int[] row : nnList)
+			for (int city : row)
+				count[city]++;
+
+		int[][] slots = new int[n][];
+		for (int city = 0; city < n; city++)
+			slots[city] = new int[count[city]];
+
+		int[] fill = new int[n];
+		for (int row = 0; row < n; row++)
+			for (int i = 0; i < k; i++) {
+				int city = nnList[row][i];
+				slots[city][fill[city]++] = row * k + i;
+			}
+		return slots;
+	}
+
+	/**
+	 * Shannon entropy of each city's choice probabilities over its
+	 * candidate list, divided by its maximum log k and averaged over the
+	 * cities. It is 1 while the weights are uniform and goes to 0 as the
+	 * colony converges on a single edge per city.
+	 *
+	 * @param choice
+	 *            choice information of every candidate edge
+	 */
+	public static double entropy(double[][] choice) {
+		double sum = 0.0;
+		for (double[] weights : choice) {
+			double total = 0.0;
+			for (double w : weights)
+				total += w;
+			if (weights.length < 2 || total <= 0.0)
+				continue;
+			double h = 0.0;
+			for (double w : weights) {
+				if (w > 0.0) {
+					double p = w / total;
+					h -= p * Math.log(p);
+				}
+			}
+			sum += h / Math.log(weights.length);
+		}
+		return sum / choice.length;
+	}
+
+	/**
+	 * Insert a city into a bounded list kept sorted by distance, dropping the
+	 * farthest entry once the list is full.
+	 *
+	 * @return new size of the list
+	 */
+	static int insert(int[] row, double[] best, int size, int city, double d) {
+		int k = row.length;
+		if (size == k && d >= best[k - 1])
+			return size;
+
+		int i = (size < k) ? size++ : k - 1;
+		while (i > 0 && best[i - 1] > d) {
+			row[i] = row[i - 1];
+			best[i] = best[i - 1];
+			i--;
+		}
+		row[i] = city;
+		best[i] = d;
+		return size;
+	}
+}
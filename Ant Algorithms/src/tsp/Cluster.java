@@ -0,0 +1,148 @@
+package tsp;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Colonies in several processes, on one machine or several. A
+ * ClusterCoordinator keeps the best tour and, if the workers send them,
+ * the average candidate-edge trails; every ClusterWorker runs an ordinary
+ * colony and exchanges with the coordinator every few iterations.
+ * <p>
+ * Messages are binary over TCP, big-endian. A tour is sent as its n
+ * cities, two bytes each when n fits, otherwise four. Both sides load the
+ * instance and check what they receive: tours must visit every city once,
+ * their lengths are recomputed rather than taken from the peer, and trail
+ * counts are bounded by the size of a summary for n cities.
+ *
+ * <pre>
+ * worker       HELLO     int MAGIC, int n, long instance fingerprint
+ * coordinator  WELCOME   byte 1, or 0 when it runs another instance
+ * worker       EXCHANGE  byte EXCHANGE, double length, tour,
+ *                        int m, float[m] candidate trails (m = 0: none)
+ * coordinator  REPLY     double best length, byte 1 + tour when shorter
+ *                        than the tour sent, else byte 0,
+ *                        int m, float[m] average trails (m = 0: none)
+ * worker       BYE       byte BYE, then closes
+ * </pre>
+ */
+public class Cluster {
+
+	static final int MAGIC = 0x41434f31; // "ACO1"
+	static final byte EXCHANGE = 1;
+	static final byte BYE = 2;
+
+	static void writeTour(DataOutputStream out, int[] path) throws IOException {
+		boolean small = path.length <= 0x10000;
+		for (int city : path) {
+			if (small)
+				out.writeShort(city);
+			else
+				out.writeInt(city);
+		}
+	}
+
+	/**
+	 * @return the tour, checked to visit every city once
+	 */
+	static int[] readTour(DataInputStream in, int n) throws IOException {
+		boolean small = n <= 0x10000;
+		int[] path = new int[n];
+		boolean[] seen = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			int city = small ? in.readUnsignedShort() : in.readInt();
+			if (city < 0 || city >= n)
+				throw new IOException("city " + city + " of " + n);
+			if (seen[city])
+				throw new IOException("city " + city + " visited twice");
+			seen[city] = true;
+			path[i] = city;
+		}
+		return path;
+	}
+
+	/**
+	 * Length of a tour from the receiver's own distances, peers only
+	 * report theirs
+	 */
+	static double tourLength(ComputedMatrix.Edge distance, int[] path) {
+		double length = 0.0;
+		for (int i = 0; i < path.length; i++)
+			length += distance.value(path[i], path[(i + 1) % path.length]);
+		return length;
+	}
+
+	/**
+	 * @param trails
+	 *            null to send none
+	 */
+	static void writeTrails(DataOutputStream out, float[] trails)
+			throws IOException {
+		if (trails == null) {
+			out.writeInt(0);
+			return;
+		}
+		out.writeInt(trails.length);
+		for (float tau : trails)
+			out.writeFloat(tau);
+	}
+
+	/**
+	 * @param max
+	 *            most trails the receiver accepts, checked before anything
+	 *            is allocated
+	 * @return null if none were sent
+	 */
+	static float[] readTrails(DataInputStream in, int max) throws IOException {
+		int m = in.readInt();
+		if (m < 0 || m > max)
+			throw new IOException("trail count " + m + ", at most " + max);
+		if (m == 0)
+			return null;
+		float[] trails = new float[m];
+		for (int i = 0; i < m; i++)
+			trails[i] = in.readFloat();
+		return trails;
+	}
+
+	/**
+	 * Run a coordinator and the given number of worker processes on this
+	 * machine: Cluster workers [engine] [tsplib file] [share trails]
+	 */
+	public static void main(String[] args) throws Exception {
+		int count = (args.length > 0) ? Integer.parseInt(args[0]) : 2;
+		Instance instance = ClusterWorker.load((args.length > 2) ? args[2] : null);
+		try (ClusterCoordinator coordinator = new ClusterCoordinator(0, instance)) {
+			coordinator.start();
+
+			String java = System.getProperty("java.home") + File.separator
+					+ "bin" + File.separator + "java";
+			List<Process> workers = new ArrayList<>();
+			for (int i = 0; i < count; i++) {
+				List<String> command = new ArrayList<>(List.of(java, "-cp",
+						System.getProperty("java.class.path"),
+						ClusterWorker.class.getName(),
+						"localhost:" + coordinator.getPort()));
+				for (int a = 1; a < args.length; a++)
+					command.add(args[a]);
+				workers.add(new ProcessBuilder(command)
+						.redirectOutput(ProcessBuilder.Redirect.DISCARD)
+						.redirectError(ProcessBuilder.Redirect.INHERIT).start());
+			}
+			for (Process worker : workers)
+				if (worker.waitFor() != 0)
+					System.err.println("worker exited with " + worker.exitValue());
+
+			System.out.println("Best Tour: " + coordinator.getBestLength());
+			int[] path = coordinator.getBestPath();
+			if (path != null)
+				for (int i : path)
+					System.out.print(i + " ");
+			System.out.println();
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package tsp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hub of a colony cluster, see Cluster for the protocol. Each worker
+ * connection is served by its own thread; the best tour is shared through
+ * an atomic reference as in Islands, and the last trail summary of every
+ * connected worker is kept to answer with their average.
+ */
+public class ClusterCoordinator implements Closeable {
+
+	final ServerSocket server;
+	final AtomicReference<Islands.Tour> best = new AtomicReference<>();
+	final Map<Integer, float[]> trails = new ConcurrentHashMap<>();
+	final AtomicInteger connections = new AtomicInteger();
+	final Instance instance; // workers must run the same one
+	final int maxTrails; // longest trail summary for the instance
+
+	/**
+	 * @param port
+	 *            0 for any free port, see getPort
+	 * @param instance
+	 *            instance of the cluster, used to turn away other workers
+	 *            and to measure the tours they send
+	 */
+	public ClusterCoordinator(int port, Instance instance) throws IOException {
+		this.instance = instance;
+		int n = instance.size();
+		maxTrails = n * Math.min(AntAlgorithm.NN_SIZE, n - 1);
+		server = new ServerSocket(port);
+	}
+
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	public double getBestLength() {
+		Islands.Tour tour = best.get();
+		return (tour != null) ? tour.length : Double.MAX_VALUE;
+	}
+
+	public int[] getBestPath() {
+		Islands.Tour tour = best.get();
+		return (tour != null) ? tour.path.clone() : null;
+	}
+
+	/**
+	 * Accept workers in the background until closed
+	 */
+	public void start() {
+		Thread acceptor = new Thread(() -> {
+			while (!server.isClosed()) {
+				try {
+					Socket socket = server.accept();
+					int id = connections.incrementAndGet();
+					Thread t = new Thread(() -> serve(id, socket), "cluster-worker-" + id);
+					t.setDaemon(true);
+					t.start();
+				} catch (IOException e) {
+					// closed, or a connection that failed before it started
+				}
+			}
+		}, "cluster-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	void serve(int id, Socket socket) {
+		try (Socket s = socket) {
+			s.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(
+					new BufferedInputStream(s.getInputStream()));
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(s.getOutputStream()));
+
+			if (in.readInt() != Cluster.MAGIC)
+				return;
+			int size = in.readInt();
+			boolean accepted = admit(size, in.readLong());
+			out.writeByte(accepted ? 1 : 0);
+			out.flush();
+			if (!accepted)
+				return;
+
+			for (byte type = in.readByte(); type == Cluster.EXCHANGE; type = in.readByte())
+				exchange(id, size, in, out);
+		} catch (IOException e) {
+			// the worker went away, the tours it sent are kept
+		} finally {
+			trails.remove(id);
+		}
+	}
+
+	/**
+	 * @return true if the worker runs the instance of the cluster
+	 */
+	boolean admit(int size, long fingerprint) {
+		return instance.size() == size && instance.fingerprint() == fingerprint;
+	}
+
+	void exchange(int id, int size, DataInputStream in, DataOutputStream out)
+			throws IOException {
+		in.readDouble(); // the worker's own measure, not trusted
+		int[] path = Cluster.readTour(in, size);
+		double length = Cluster.tourLength(instance::distance, path);
+		Islands.Tour sent = new Islands.Tour(path, length);
+		float[] summary = Cluster.readTrails(in, maxTrails);
+		best.accumulateAndGet(sent,
+				(cur, next) -> (cur == null || next.length < cur.length) ? next : cur);
+		if (summary != null)
+			trails.put(id, summary);
+
+		Islands.Tour tour = best.get();
+		out.writeDouble(tour.length);
+		if (tour.length < length) {
+			out.writeByte(1);
+			Cluster.writeTour(out, tour.path);
+		} else {
+			out.writeByte(0);
+		}
+		Cluster.writeTrails(out, (summary != null) ? averageTrails(summary.length) : null);
+		out.flush();
+	}
+
+	/**
+	 * @return mean of the latest summaries of all workers
+	 */
+	float[] averageTrails(int m) {
+		double[] sum = new double[m];
+		int count = 0;
+		for (float[] summary : trails.values()) {
+			if (summary.length != m)
+				continue;
+			for (int i = 0; i < m; i++)
+				sum[i] += summary[i];
+			count++;
+		}
+		float[] mean = new float[m];
+		for (int i = 0; i < m; i++)
+			mean[i] = (float) (sum[i] / count);
+		return mean;
+	}
+
+	@Override
+	public void close() throws IOException {
+		server.close();
+	}
+
+	/**
+	 * Serve workers until killed: ClusterCoordinator [port] [tsplib file]
+	 */
+	public static void main(String[] args) throws Exception {
+		int port = (args.length > 0) ? Integer.parseInt(args[0]) : 4343;
+		Instance instance = ClusterWorker.load((args.length > 1) ? args[1] : null);
+		try (ClusterCoordinator coordinator = new ClusterCoordinator(port, instance)) {
+			coordinator.start();
+			System.out.println("Waiting for workers on port " + coordinator.getPort());
+			double reported = Double.MAX_VALUE;
+			while (true) {
+				Thread.sleep(1000);
+				double length = coordinator.getBestLength();
+				if (length < reported) {
+					reported = length;
+					System.out.println("Best Tour: " + length);
+				}
+			}
+		}
+	}
+}
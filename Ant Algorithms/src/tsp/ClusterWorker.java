@@ -0,0 +1,114 @@
+package tsp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.SplittableRandom;
+
+/**
+ * One colony of a cluster, see Cluster for the protocol. The colony runs
+ * its usual iterations and only stops every exchangeInterval iterations to
+ * send its best tour and take over a shorter one from the coordinator.
+ */
+public class ClusterWorker {
+
+	static final long RANDOM_SEED = 1; // same random instance in every process
+
+	final AntAlgorithm colony;
+	int exchangeInterval = 50;
+	int iterations = 2000;
+	boolean shareTrails = false; // also average the candidate edge trails
+	double trailWeight = 0.5; // share of the average in the blended trails
+
+	public ClusterWorker(AntAlgorithm colony) {
+		this.colony = colony;
+	}
+
+	/**
+	 * Run the colony on the instance, exchanging with the coordinator at
+	 * host:port
+	 */
+	public void run(Instance instance, String host, int port) throws IOException {
+		colony.init(instance);
+		int n = instance.size();
+		try (Socket socket = new Socket(host, port)) {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(
+					new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(socket.getOutputStream()));
+
+			out.writeInt(Cluster.MAGIC);
+			out.writeInt(n);
+			out.writeLong(instance.fingerprint());
+			out.flush();
+			if (in.readByte() == 0)
+				throw new IllegalStateException("coordinator at " + host + ":"
+						+ port + " runs another instance");
+
+			for (int it = 1; it <= iterations; it++) {
+				colony.iterate();
+				if (it % exchangeInterval == 0 || it == iterations)
+					exchange(n, in, out);
+			}
+			out.writeByte(Cluster.BYE);
+			out.flush();
+		} finally {
+			if (colony.workers != null) {
+				colony.workers.shutdown();
+				colony.workers = null;
+			}
+		}
+	}
+
+	void exchange(int n, DataInputStream in, DataOutputStream out)
+			throws IOException {
+		out.writeByte(Cluster.EXCHANGE);
+		out.writeDouble(colony.bestPathLength);
+		Cluster.writeTour(out, colony.bestPath);
+		Cluster.writeTrails(out, shareTrails ? colony.trailSummary() : null);
+		out.flush();
+
+		in.readDouble(); // the coordinator's measure, recomputed below
+		if (in.readByte() != 0) {
+			int[] path = Cluster.readTour(in, n);
+			double length = Cluster.tourLength(colony.distance::get, path);
+			if (length < colony.bestPathLength)
+				colony.adoptTour(path, length);
+		}
+		float[] mean = Cluster.readTrails(in, colony.trailSummaryLength());
+		if (mean != null)
+			colony.blendTrails(mean, trailWeight);
+	}
+
+	/**
+	 * @param file
+	 *            TSPLIB file, or null for the random instance every process
+	 *            of a cluster places the same way
+	 */
+	static Instance load(String file) throws IOException {
+		if (file != null)
+			return TsplibReader.read(file);
+		return Instance.random(100, Instance.DEFAULT_MAP_SIZE, new SplittableRandom(RANDOM_SEED));
+	}
+
+	/**
+	 * ClusterWorker host:port [engine] [tsplib file] [share trails]
+	 */
+	public static void main(String[] args) throws IOException {
+		String[] address = args[0].split(":");
+		AntAlgorithm colony = new AntAlgorithm();
+		if (args.length > 1)
+			colony.setEngine(Engine.valueOf(args[1]));
+		Instance instance = load((args.length > 2) ? args[2] : null);
+
+		ClusterWorker worker = new ClusterWorker(colony);
+		if (args.length > 3)
+			worker.shareTrails = Boolean.parseBoolean(args[3]);
+		worker.run(instance, address[0], Integer.parseInt(address[1]));
+		System.out.println("Best Tour: " + colony.bestPathLength);
+	}
+}
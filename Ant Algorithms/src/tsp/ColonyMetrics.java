@@ -0,0 +1,71 @@
+package tsp;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * Metrics of one colony, registered under a colony label so several
+ * colonies can share a registry. The tour lengths and the entropy are read
+ * from the colony when scraped, so recording an iteration costs a few
+ * nanoTime calls and counter increments.
+ */
+public class ColonyMetrics {
+
+	static final String PHASE = "aco_phase_seconds";
+
+	final Metrics.Timer construction;
+	final Metrics.Timer localSearch;
+	final Metrics.Timer evaporation;
+	final Metrics.Timer deposit;
+	final Metrics.Timer choice;
+	final Metrics.Counter iterations;
+	final Metrics.Counter tours;
+	final long started = System.nanoTime();
+
+	/**
+	 * @param colony
+	 *            value of the colony label
+	 * @param best
+	 *            length of the best tour so far
+	 * @param mean
+	 *            mean tour length of the last iteration
+	 * @param entropy
+	 *            choice entropy of the colony, see CandidateLists.entropy
+	 */
+	public ColonyMetrics(Metrics registry, String colony, DoubleSupplier best,
+			DoubleSupplier mean, DoubleSupplier entropy) {
+		String labels = "colony=\"" + colony + "\"";
+		String help = "Time spent in each phase of the colony iterations";
+		construction = registry.timer(PHASE, help, labels + ",phase=\"construction\"");
+		localSearch = registry.timer(PHASE, help, labels + ",phase=\"local_search\"");
+		evaporation = registry.timer(PHASE, help, labels + ",phase=\"evaporation\"");
+		deposit = registry.timer(PHASE, help, labels + ",phase=\"deposit\"");
+		choice = registry.timer(PHASE, help, labels + ",phase=\"choice_information\"");
+		iterations = registry.counter("aco_iterations_total", "Completed colony iterations", labels);
+		tours = registry.counter("aco_tours_total", "Tours built by the ants", labels);
+
+		registry.gauge("aco_iterations_per_second", "Iterations per second since the colony started",
+				labels, () -> perSecond(iterations));
+		registry.gauge("aco_tours_per_second", "Tours per second since the colony started",
+				labels, () -> perSecond(tours));
+		registry.gauge("aco_best_tour_length", "Length of the best tour so far", labels, best);
+		registry.gauge("aco_mean_tour_length", "Mean tour length of the last iteration",
+				labels, mean);
+		registry.gauge("aco_entropy", "Mean normalised entropy of the candidate list choice "
+				+ "probabilities, 1 for uniform and 0 once converged", labels, entropy);
+	}
+
+	double perSecond(Metrics.Counter counter) {
+		return counter.get() / ((System.nanoTime() - started) / 1e9);
+	}
+
+	/**
+	 * Count a finished iteration
+	 *
+	 * @param ants
+	 *            tours built during it
+	 */
+	void iteration(int ants) {
+		iterations.increment();
+		tours.add(ants);
+	}
+}
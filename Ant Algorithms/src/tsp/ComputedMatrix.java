@@ -0,0 +1,176 @@
+package tsp;
+
+import java.util.Arrays;
+
+/**
+ * Read-only symmetric matrix whose entries are computed on demand, for
+ * instances too large to store n x n values. The values of the candidate
+ * edges are kept since selection and local search read them all the time.
+ * Each thread also keeps a few recently used full rows: a row is computed
+ * as a whole once it is read many times in a row, which is what a scan
+ * over all cities (the fallback selection, nearest neighbour tour) does.
+ */
+public class ComputedMatrix extends Matrix {
+
+	/**
+	 * Value of an edge
+	 */
+	public interface Edge {
+		double value(int from, int to);
+	}
+
+	static final int HOT_STREAK = 64; // misses on one row before caching it
+
+	final Edge edge;
+	final int rows; // rows cached per thread
+	int[][] nnList;
+	double[][] nnValue; // value of each candidate edge
+	final ThreadLocal<RowCache> cache;
+
+	/**
+	 * @param n
+	 *            number of cities
+	 * @param edge
+	 *            computes the value of an edge
+	 * @param rows
+	 *            number of full rows each thread may cache
+	 */
+	public ComputedMatrix(int n, Edge edge, int rows) {
+		super(n);
+		this.edge = edge;
+		this.rows = rows;
+		this.cache = ThreadLocal.withInitial(() -> new RowCache(this.n, this.rows));
+	}
+
+	/**
+	 * Keep the values of the candidate edges
+	 *
+	 * @param nnList
+	 *            candidate list of each city
+	 */
+	public void cacheCandidates(int[][] nnList) {
+		double[][] values = new double[n][];
+		for (int from = 0; from < n; from++) {
+			values[from] = new double[nnList[from].length];
+			for (int i = 0; i < nnList[from].length; i++)
+				values[from][i] = edge.value(from, nnList[from][i]);
+		}
+		this.nnValue = values;
+		this.nnList = nnList;
+	}
+
+	@Override
+	public double get(int from, int to) {
+		if (nnList != null) {
+			int[] candidates = nnList[from];
+			for (int i = 0; i < candidates.length; i++)
+				if (candidates[i] == to)
+					return nnValue[from][i];
+		}
+
+		RowCache rc = cache.get();
+		double[] row = rc.find(from);
+		if (row != null)
+			return row[to];
+		if (rc.miss(from) >= HOT_STREAK)
+			return rc.load(from, edge)[to];
+		return edge.value(from, to);
+	}
+
+	/**
+	 * @return every entry of the row, from the cache of the calling thread
+	 */
+	public double[] row(int from) {
+		RowCache rc = cache.get();
+		double[] row = rc.find(from);
+		return (row != null) ? row : rc.load(from, edge);
+	}
+
+	@Override
+	public void set(int from, int to, double value) {
+		throw new UnsupportedOperationException("computed matrix is read-only");
+	}
+
+	@Override
+	public void fill(double value) {
+		throw new UnsupportedOperationException("computed matrix is read-only");
+	}
+
+	@Override
+	public void scale(double factor) {
+		throw new UnsupportedOperationException("computed matrix is read-only");
+	}
+
+	@Override
+	public void copyFrom(Matrix other) {
+		throw new UnsupportedOperationException("computed matrix is read-only");
+	}
+
+	/**
+	 * Least recently used full rows of one thread
+	 */
+	static class RowCache {
+		final double[][] values;
+		final int[] owner; // row held by each slot, -1 if empty
+		final long[] used; // clock value of the last read of each slot
+		final int[] slot; // slot of each row, -1 if not cached
+		long clock;
+		int lastMiss = -1, streak;
+
+		RowCache(int n, int rows) {
+			values = new double[rows][];
+			owner = new int[rows];
+			used = new long[rows];
+			slot = new int[n];
+			Arrays.fill(owner, -1);
+			Arrays.fill(slot, -1);
+		}
+
+		double[] find(int from) {
+			int s = slot[from];
+			if (s == -1)
+				return null;
+			used[s] = ++clock;
+			return values[s];
+		}
+
+		/**
+		 * @return number of misses on this row since the last miss elsewhere
+		 */
+		int miss(int from) {
+			if (from != lastMiss) {
+				lastMiss = from;
+				streak = 0;
+			}
+			return ++streak;
+		}
+
+		double[] load(int from, Edge edge) {
+			if (values.length == 0) {
+				// no rows cached, hand out a fresh one
+				double[] row = new double[slot.length];
+				for (int to = 0; to < row.length; to++)
+					row[to] = edge.value(from, to);
+				return row;
+			}
+
+			int victim = 0;
+			for (int s = 1; s < values.length; s++)
+				if (used[s] < used[victim])
+					victim = s;
+			if (owner[victim] != -1)
+				slot[owner[victim]] = -1;
+			if (values[victim] == null)
+				values[victim] = new double[slot.length];
+
+			double[] row = values[victim];
+			for (int to = 0; to < row.length; to++)
+				row[to] = edge.value(from, to);
+			owner[victim] = from;
+			slot[from] = victim;
+			used[victim] = ++clock;
+			lastMiss = -1;
+			return row;
+		}
+	}
+}
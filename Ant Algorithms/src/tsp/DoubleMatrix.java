@@ -0,0 +1,78 @@
+package tsp;
+
+import java.util.Arrays;
+
+/**
+ * Matrix stored as a flat array of doubles
+ */
+public class DoubleMatrix extends Matrix {
+
+	final double[] values;
+
+	public DoubleMatrix(int n, boolean packed) {
+		super(n, packed);
+		values = new double[(int) cells(n, packed)];
+	}
+
+	@Override
+	public double get(int from, int to) {
+		return values[index(from, to)];
+	}
+
+	@Override
+	public void set(int from, int to, double value) {
+		values[index(from, to)] = value;
+	}
+
+	@Override
+	public void addSymmetric(int from, int to, double value) {
+		values[index(from, to)] += value;
+		if (!packed && from != to)
+			values[index(to, from)] += value;
+	}
+
+	/**
+	 * Flat loop over the three stores when they share the layout. Each
+	 * common exponent gets its own loop so the bodies have no branches and
+	 * the JIT can vectorise them.
+	 */
+	@Override
+	public void setChoice(Matrix tau, double floor, double alpha, Matrix eta) {
+		if (!(tau instanceof DoubleMatrix) || !(eta instanceof DoubleMatrix)
+				|| !sameLayout(tau) || !sameLayout(eta)) {
+			super.setChoice(tau, floor, alpha, eta);
+			return;
+		}
+		double[] t = ((DoubleMatrix) tau).values;
+		double[] e = ((DoubleMatrix) eta).values;
+		if (alpha == 1.0) {
+			for (int i = 0; i < values.length; i++)
+				values[i] = Math.max(t[i], floor) * e[i];
+		} else if (alpha == 2.0) {
+			for (int i = 0; i < values.length; i++) {
+				double x = Math.max(t[i], floor);
+				values[i] = x * x * e[i];
+			}
+		} else {
+			for (int i = 0; i < values.length; i++)
+				values[i] = FastPow.pow(Math.max(t[i], floor), alpha) * e[i];
+		}
+	}
+
+	@Override
+	public void fill(double value) {
+		Arrays.fill(values, value);
+	}
+
+	@Override
+	public void scale(double factor) {
+		for (int i = 0; i < values.length; i++)
+			values[i] *= factor;
+	}
+
+	@Override
+	public void copyFrom(Matrix other) {
+		System.arraycopy(((DoubleMatrix) other).values, 0, values, 0,
+				values.length);
+	}
+}
@@ -0,0 +1,21 @@
+package tsp;
+
+/**
+ * Pheromone update rule used by a colony
+ */
+public enum Engine {
+	/** every ant deposits on every edge of its tour */
+	ANT_SYSTEM,
+	/**
+	 * MAX-MIN Ant System: only the iteration-best or global-best tour
+	 * deposits, trails are kept within [tauMin, tauMax] and reinitialised
+	 * once the colony stagnates
+	 */
+	MAX_MIN_ANT_SYSTEM,
+	/**
+	 * Ant Colony System: ants mostly exploit the best candidate edge, apply
+	 * a local pheromone update to every edge they take and only the
+	 * global-best tour deposits
+	 */
+	ANT_COLONY_SYSTEM
+}
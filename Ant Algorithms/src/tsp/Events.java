@@ -0,0 +1,90 @@
+package tsp;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events of the solvers. Every event records its
+ * duration and thread; they cost next to nothing unless a recording is
+ * running, for example java -XX:StartFlightRecording=filename=run.jfr.
+ */
+public class Events {
+
+	@Name("tsp.Iteration")
+	@Label("Colony Iteration")
+	@Category("Ant Colony")
+	@Description("One iteration of a colony, from tour construction to the next restart")
+	static class Iteration extends Event {
+		@Label("Solver")
+		String solver;
+
+		@Label("Iteration")
+		int iteration;
+
+		@Label("Best Length")
+		double bestLength;
+
+		@Label("Mean Length")
+		@Description("Mean tour length of the ants in this iteration")
+		double meanLength;
+	}
+
+	@Name("tsp.Construction")
+	@Label("Tour Construction")
+	@Category("Ant Colony")
+	@Description("All ants of a colony building their tours")
+	static class Construction extends Event {
+		@Label("Solver")
+		String solver;
+
+		@Label("Iteration")
+		int iteration;
+
+		@Label("Ants")
+		int ants;
+
+		@Label("Threads")
+		int threads;
+	}
+
+	@Name("tsp.PheromoneUpdate")
+	@Label("Pheromone Update")
+	@Category("Ant Colony")
+	@Description("Evaporation and deposit of pheromone after an iteration")
+	static class PheromoneUpdate extends Event {
+		@Label("Solver")
+		String solver;
+
+		@Label("Iteration")
+		int iteration;
+
+		@Label("Update")
+		@Description("Update rule, or the part of it that ran")
+		String update;
+	}
+
+	@Name("tsp.BestTour")
+	@Label("Best Tour Improved")
+	@Category("Ant Colony")
+	@Description("A colony found or adopted a shorter tour")
+	static class BestTour extends Event {
+		@Label("Solver")
+		String solver;
+
+		@Label("Iteration")
+		int iteration;
+
+		@Label("Previous Length")
+		double previousLength;
+
+		@Label("Length")
+		double length;
+
+		@Label("Adopted")
+		@Description("Taken over from another colony instead of found by an ant")
+		boolean adopted;
+	}
+}
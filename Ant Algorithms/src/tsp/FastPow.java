@@ -0,0 +1,38 @@
+package tsp;
+
+/**
+ * Exponentiation used when building the choice information. Alpha and beta
+ * are almost always small integers, which do not need Math.pow.
+ */
+public class FastPow {
+
+	/**
+	 * @param x
+	 *            base
+	 * @param e
+	 *            exponent
+	 * @return x raised to e
+	 */
+	public static double pow(double x, double e) {
+		if (e == 1.0)
+			return x;
+		if (e == 2.0)
+			return x * x;
+		if (e == 0.5)
+			return Math.sqrt(x);
+
+		int n = (int) e;
+		if (n == e && n >= 0 && n <= 64) {
+			// exponentiation by squaring for integer exponents
+			double result = 1.0;
+			while (n > 0) {
+				if ((n & 1) != 0)
+					result *= x;
+				x *= x;
+				n >>= 1;
+			}
+			return result;
+		}
+		return Math.pow(x, e);
+	}
+}
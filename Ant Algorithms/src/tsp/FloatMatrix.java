@@ -0,0 +1,81 @@
+package tsp;
+
+import java.util.Arrays;
+
+/**
+ * Matrix stored as a flat array of floats
+ */
+public class FloatMatrix extends Matrix {
+
+	final float[] values;
+
+	public FloatMatrix(int n, boolean packed) {
+		super(n, packed);
+		values = new float[(int) cells(n, packed)];
+	}
+
+	@Override
+	public double get(int from, int to) {
+		return values[index(from, to)];
+	}
+
+	@Override
+	public void set(int from, int to, double value) {
+		values[index(from, to)] = (float) value;
+	}
+
+	@Override
+	public void addSymmetric(int from, int to, double value) {
+		int i = index(from, to);
+		values[i] = (float) (values[i] + value);
+		if (!packed && from != to) {
+			i = index(to, from);
+			values[i] = (float) (values[i] + value);
+		}
+	}
+
+	/**
+	 * @see DoubleMatrix#setChoice(Matrix, double, double, Matrix)
+	 */
+	@Override
+	public void setChoice(Matrix tau, double floor, double alpha, Matrix eta) {
+		if (!(tau instanceof FloatMatrix) || !(eta instanceof FloatMatrix)
+				|| !sameLayout(tau) || !sameLayout(eta)) {
+			super.setChoice(tau, floor, alpha, eta);
+			return;
+		}
+		float[] t = ((FloatMatrix) tau).values;
+		float[] e = ((FloatMatrix) eta).values;
+		float f = (float) floor;
+		if (alpha == 1.0) {
+			for (int i = 0; i < values.length; i++)
+				values[i] = Math.max(t[i], f) * e[i];
+		} else if (alpha == 2.0) {
+			for (int i = 0; i < values.length; i++) {
+				float x = Math.max(t[i], f);
+				values[i] = x * x * e[i];
+			}
+		} else {
+			for (int i = 0; i < values.length; i++)
+				values[i] = (float) (FastPow.pow(Math.max(t[i], f), alpha) * e[i]);
+		}
+	}
+
+	@Override
+	public void fill(double value) {
+		Arrays.fill(values, (float) value);
+	}
+
+	@Override
+	public void scale(double factor) {
+		float f = (float) factor;
+		for (int i = 0; i < values.length; i++)
+			values[i] *= f;
+	}
+
+	@Override
+	public void copyFrom(Matrix other) {
+		System.arraycopy(((FloatMatrix) other).values, 0, values, 0,
+				values.length);
+	}
+}
@@ -0,0 +1,210 @@
+package tsp;
+
+/**
+ * Exact solver using the Held-Karp dynamic program. For every subset S of
+ * the cities other than 0 and every k in S it finds the shortest path that
+ * leaves city 0, visits S and ends in k. Subsets are processed in layers of
+ * equal size, each layer only reads the one before, so the layers are
+ * split over the workers and only two of them are kept as values; the
+ * chosen predecessors of every layer are kept to rebuild the tour.
+ * <p>
+ * Time is O(2^n n^2) and memory O(2^n n) bytes for the predecessors, which
+ * puts about 25 cities within reach (run those with -Xmx1g or more).
+ */
+public class HeldKarp {
+
+	public static final int MAX_CITIES = 28;
+
+	final int threads;
+	double[][] d;
+	int m; // cities besides 0, bit i stands for city i + 1
+	int[][] binom;
+
+	double length;
+	int[] tour;
+
+	/**
+	 * @param threads
+	 *            threads used to fill a layer
+	 */
+	public HeldKarp(int threads) {
+		this.threads = threads;
+	}
+
+	public HeldKarp() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @return length of the shortest tour
+	 */
+	public double getLength() {
+		return length;
+	}
+
+	/**
+	 * @return the shortest tour, starting at city 0
+	 */
+	public int[] getTour() {
+		return tour;
+	}
+
+	/**
+	 * Find an optimal tour
+	 *
+	 * @return its length, see also {@link #getTour()}
+	 */
+	public double solve(Matrix distance) {
+		int n = distance.size();
+		if (n > MAX_CITIES)
+			throw new IllegalArgumentException("Held-Karp is limited to "
+					+ MAX_CITIES + " cities: " + n);
+		tour = new int[n];
+		if (n <= 3) {
+			for (int i = 0; i < n; i++)
+				tour[i] = i;
+			length = 0.0;
+			for (int i = 0; i < n; i++)
+				length += distance.get(tour[i], tour[(i + 1) % n]);
+			return length;
+		}
+
+		d = new double[n][n];
+		for (int i = 0; i < n; i++)
+			for (int j = 0; j < n; j++)
+				d[i][j] = distance.get(i, j);
+		m = n - 1;
+		binom = new int[m + 1][m + 1];
+		for (int i = 0; i <= m; i++) {
+			binom[i][0] = 1;
+			for (int j = 1; j <= i; j++)
+				binom[i][j] = binom[i - 1][j - 1] + binom[i - 1][j];
+		}
+
+		// layer 1: straight from city 0
+		double[] prev = new double[m];
+		for (int k = 0; k < m; k++)
+			prev[k] = d[0][k + 1];
+
+		byte[][] parent = new byte[m + 1][];
+		Workers workers = (threads > 1) ? new Workers(threads) : null;
+		try {
+			for (int s = 2; s <= m; s++) {
+				double[] cur = new double[binom[m][s] * s];
+				parent[s] = new byte[cur.length];
+				fillLayer(s, prev, cur, parent[s], workers);
+				prev = cur;
+			}
+		} finally {
+			if (workers != null)
+				workers.shutdown();
+		}
+
+		// close the tour from the best last city
+		int full = (1 << m) - 1;
+		int last = 0;
+		length = Double.MAX_VALUE;
+		for (int k = 0; k < m; k++) {
+			double total = prev[k] + d[k + 1][0];
+			if (total < length) {
+				length = total;
+				last = k;
+			}
+		}
+
+		// walk the predecessors back to city 0
+		int mask = full;
+		int k = last;
+		for (int s = m; s >= 2; s--) {
+			tour[s] = k + 1;
+			int j = parent[s][rank(mask) * s + position(mask, k)];
+			mask ^= 1 << k;
+			k = j;
+		}
+		tour[1] = k + 1;
+		tour[0] = 0;
+		return length;
+	}
+
+	void fillLayer(int s, double[] prev, double[] cur, byte[] parent,
+			Workers workers) {
+		int count = binom[m][s];
+		if (workers == null) {
+			for (int r = 0; r < count; r++)
+				fillSubset(s, r, prev, cur, parent);
+		} else {
+			workers.run(count, r -> fillSubset(s, r, prev, cur, parent));
+		}
+	}
+
+	/**
+	 * Best paths for every end city of the subset with the given rank
+	 */
+	void fillSubset(int s, int r, double[] prev, double[] cur, byte[] parent) {
+		int mask = unrank(r, s);
+		int pk = 0;
+		for (int rest = mask; rest != 0; rest &= rest - 1, pk++) {
+			int k = Integer.numberOfTrailingZeros(rest);
+			int without = mask ^ (1 << k);
+			int base = rank(without) * (s - 1);
+
+			double best = Double.MAX_VALUE;
+			int bestJ = -1;
+			int pj = 0;
+			for (int others = without; others != 0; others &= others - 1, pj++) {
+				int j = Integer.numberOfTrailingZeros(others);
+				double value = prev[base + pj] + d[j + 1][k + 1];
+				if (value < best) {
+					best = value;
+					bestJ = j;
+				}
+			}
+			cur[r * s + pk] = best;
+			parent[r * s + pk] = (byte) bestJ;
+		}
+	}
+
+	/**
+	 * @return position of the subset among those of the same size, in
+	 *         colexicographic order
+	 */
+	int rank(int mask) {
+		int r = 0;
+		int i = 1;
+		for (; mask != 0; mask &= mask - 1, i++)
+			r += binom[Integer.numberOfTrailingZeros(mask)][i];
+		return r;
+	}
+
+	/**
+	 * @return subset of size s with the given rank
+	 */
+	int unrank(int r, int s) {
+		int mask = 0;
+		for (int bit = m - 1; s > 0; bit--) {
+			if (binom[bit][s] <= r) {
+				r -= binom[bit][s];
+				mask |= 1 << bit;
+				s--;
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * @return number of members of the subset below k
+	 */
+	static int position(int mask, int k) {
+		return Integer.bitCount(mask & ((1 << k) - 1));
+	}
+
+	public static void main(String[] args) {
+		ACO aco = new ACO();
+		aco.initACO();
+		HeldKarp heldKarp = new HeldKarp();
+		System.out.println(heldKarp.solve(aco.precomp_distance));
+		for (int city : heldKarp.getTour())
+			System.out.print(city + " ");
+		System.out.println();
+	}
+}
@@ -0,0 +1,234 @@
+package tsp;
+
+import java.util.SplittableRandom;
+
+/**
+ * A TSP instance: city coordinates in primitive arrays plus the rule for
+ * the distance between two cities. TSPLIB files are read by TsplibReader.
+ */
+public class Instance {
+
+	/**
+	 * Distance functions, named after the TSPLIB EDGE_WEIGHT_TYPE values
+	 */
+	public enum Type {
+		/** Euclidean distance rounded to the nearest integer */
+		EUC_2D,
+		/** Euclidean distance rounded up */
+		CEIL_2D,
+		/** pseudo-Euclidean distance of the att instances */
+		ATT,
+		/** geographical distance, coordinates are DDD.MM degrees */
+		GEO,
+		/** distances given as a matrix in the file */
+		EXPLICIT,
+		/** plain Euclidean distance, used for randomly placed cities */
+		REAL_2D
+	}
+
+	public static final int DEFAULT_MAP_SIZE = 200; // side of the square random cities are placed in
+	static final double GEO_PI = 3.141592;
+	static final double GEO_RADIUS = 6378.388;
+
+	String name;
+	Type type;
+	int dimension;
+	double[] x, y; // coordinates, null for explicit instances without display data
+	Matrix weights; // explicit distances
+	double[] latitude, longitude; // GEO coordinates in radians
+
+	public Instance(String name, Type type, int dimension) {
+		this.name = name;
+		this.type = type;
+		this.dimension = dimension;
+	}
+
+	/**
+	 * @param n
+	 *            number of cities
+	 * @param mapSize
+	 *            cities are placed on integer coordinates in [0, mapSize)
+	 * @return instance with randomly placed cities
+	 */
+	public static Instance random(int n, int mapSize, SplittableRandom random) {
+		Instance instance = new Instance("random" + n, Type.REAL_2D, n);
+		instance.x = new double[n];
+		instance.y = new double[n];
+		for (int i = 0; i < n; i++) {
+			instance.x[i] = random.nextInt(mapSize);
+			instance.y[i] = random.nextInt(mapSize);
+		}
+		return instance;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public int size() {
+		return dimension;
+	}
+
+	public boolean hasCoordinates() {
+		return x != null;
+	}
+
+	/**
+	 * @return distance between two cities according to the instance type
+	 */
+	public double distance(int i, int j) {
+		switch (type) {
+		case EUC_2D:
+			return nint(euclidean(i, j));
+		case CEIL_2D:
+			return Math.ceil(euclidean(i, j));
+		case ATT: {
+			double dx = x[i] - x[j];
+			double dy = y[i] - y[j];
+			double r = Math.sqrt((dx * dx + dy * dy) / 10.0);
+			double t = nint(r);
+			return (t < r) ? t + 1.0 : t;
+		}
+		case GEO: {
+			if (i == j)
+				return 0.0;
+			double q1 = Math.cos(longitude[i] - longitude[j]);
+			double q2 = Math.cos(latitude[i] - latitude[j]);
+			double q3 = Math.cos(latitude[i] + latitude[j]);
+			return (int) (GEO_RADIUS
+					* Math.acos(0.5 * ((1.0 + q1) * q2 - (1.0 - q1) * q3)) + 1.0);
+		}
+		case EXPLICIT:
+			return weights.get(i, j);
+		default:
+			return euclidean(i, j);
+		}
+	}
+
+	/**
+	 * @return true if the distance only depends on the Euclidean distance
+	 *         between the coordinates and never decreases with it, which
+	 *         lets a KdTree answer nearest neighbour queries
+	 */
+	public boolean isPlanar() {
+		return hasCoordinates() && type != Type.GEO && type != Type.EXPLICIT;
+	}
+
+	/**
+	 * @param squared
+	 *            lower bound on the squared Euclidean distance of two planar
+	 *            cities
+	 * @return lower bound on their distance
+	 */
+	double lowerBound(double squared) {
+		switch (type) {
+		case EUC_2D:
+			return nint(Math.sqrt(squared));
+		case CEIL_2D:
+			return Math.ceil(Math.sqrt(squared));
+		case ATT: {
+			double r = Math.sqrt(squared / 10.0);
+			double t = nint(r);
+			return (t < r) ? t + 1.0 : t;
+		}
+		default:
+			return Math.sqrt(squared);
+		}
+	}
+
+	/**
+	 * TSPLIB rounding, halves go up
+	 */
+	static double nint(double d) {
+		return Math.floor(d + 0.5);
+	}
+
+	double euclidean(int i, int j) {
+		double dx = x[i] - x[j];
+		double dy = y[i] - y[j];
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	/**
+	 * Convert GEO coordinates from DDD.MM to radians, as TSPLIB defines them
+	 */
+	void computeGeo() {
+		latitude = new double[dimension];
+		longitude = new double[dimension];
+		for (int i = 0; i < dimension; i++) {
+			latitude[i] = geoRadians(x[i]);
+			longitude[i] = geoRadians(y[i]);
+		}
+	}
+
+	static double geoRadians(double value) {
+		int deg = (int) value;
+		double min = value - deg;
+		return GEO_PI * (deg + 5.0 * min / 3.0) / 180.0;
+	}
+
+	/**
+	 * Place the cities for drawing: the bounding box of the coordinates is
+	 * scaled into [0, size] keeping the aspect ratio. Instances without
+	 * coordinates get their cities on a circle.
+	 *
+	 * @return x and y of every city
+	 */
+	int[][] layout(int size) {
+		int[][] cities = new int[dimension][];
+		if (!hasCoordinates()) {
+			for (int i = 0; i < dimension; i++) {
+				double angle = 2.0 * Math.PI * i / dimension;
+				cities[i] = new int[] { (int) Math.round(size * (1.0 + Math.cos(angle)) / 2.0),
+						(int) Math.round(size * (1.0 + Math.sin(angle)) / 2.0) };
+			}
+			return cities;
+		}
+
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		for (int i = 0; i < dimension; i++) {
+			minX = Math.min(minX, x[i]);
+			maxX = Math.max(maxX, x[i]);
+			minY = Math.min(minY, y[i]);
+			maxY = Math.max(maxY, y[i]);
+		}
+		double span = Math.max(maxX - minX, maxY - minY);
+		double scale = (span > 0.0) ? size / span : 0.0;
+		for (int i = 0; i < dimension; i++)
+			cities[i] = new int[] { (int) Math.round((x[i] - minX) * scale),
+					(int) Math.round((y[i] - minY) * scale) };
+		return cities;
+	}
+
+	/**
+	 * @return hash of the type and data of the instance, to recognise a
+	 *         distance matrix stored for it earlier
+	 */
+	public long fingerprint() {
+		long h = 1125899906842597L;
+		h = 31 * h + type.ordinal();
+		h = 31 * h + dimension;
+		for (int i = 0; x != null && i < dimension; i++) {
+			h = 31 * h + Double.doubleToLongBits(x[i]);
+			h = 31 * h + Double.doubleToLongBits(y[i]);
+		}
+		for (int i = 0; weights != null && i < dimension; i++)
+			for (int j = i; j < dimension; j++)
+				h = 31 * h + Double.doubleToLongBits(weights.get(i, j));
+		return h;
+	}
+
+	/**
+	 * Fill a symmetric matrix with every distance of the instance
+	 */
+	public void fill(Matrix distance) {
+		for (int i = 0; i < dimension; i++)
+			for (int j = i; j < dimension; j++)
+				distance.setSymmetric(i, j, distance(i, j));
+	}
+}
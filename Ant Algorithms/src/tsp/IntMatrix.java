@@ -0,0 +1,51 @@
+package tsp;
+
+import java.util.Arrays;
+
+/**
+ * Matrix of integer distances stored as a flat array of ints. Values are
+ * rounded the way TSPLIB rounds its distances.
+ */
+public class IntMatrix extends Matrix {
+
+	final int[] values;
+
+	public IntMatrix(int n, boolean packed) {
+		super(n, packed);
+		values = new int[(int) cells(n, packed)];
+	}
+
+	static int round(double value) {
+		long rounded = Math.round(value);
+		if (rounded < 0 || rounded > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("distance does not fit an int: " + value);
+		return (int) rounded;
+	}
+
+	@Override
+	public double get(int from, int to) {
+		return values[index(from, to)];
+	}
+
+	@Override
+	public void set(int from, int to, double value) {
+		values[index(from, to)] = round(value);
+	}
+
+	@Override
+	public void fill(double value) {
+		Arrays.fill(values, round(value));
+	}
+
+	@Override
+	public void scale(double factor) {
+		for (int i = 0; i < values.length; i++)
+			values[i] = round(values[i] * factor);
+	}
+
+	@Override
+	public void copyFrom(Matrix other) {
+		System.arraycopy(((IntMatrix) other).values, 0, values, 0,
+				values.length);
+	}
+}
@@ -0,0 +1,155 @@
+package tsp;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Island model: several independent colonies, each on its own thread with
+ * its own pheromone matrix and, if wanted, its own alpha, beta and rho.
+ * Every migrationInterval iterations a colony publishes its best tour and
+ * takes over a better one from the colony before it (RING) or from the
+ * best of all colonies (ALL_TO_BEST). Tours are exchanged through atomic
+ * references, so colonies never wait for each other.
+ */
+public class Islands {
+
+	/**
+	 * A published tour, never changed once shared
+	 */
+	static final class Tour {
+		final int[] path;
+		final double length;
+
+		Tour(int[] path, double length) {
+			this.path = path;
+			this.length = length;
+		}
+	}
+
+	final AntAlgorithm[] colonies;
+	Topology topology = Topology.RING;
+	int migrationInterval = 50; // iterations between exchanges
+	int iterations = 2000; // of every colony
+	long seed = System.nanoTime();
+
+	AtomicReferenceArray<Tour> published; // latest tour of each colony
+	final AtomicReference<Tour> best = new AtomicReference<>();
+
+	/**
+	 * @param count
+	 *            number of colonies, each gets a thread
+	 * @param engine
+	 *            update rule of every colony, see {@link #colony(int)} to
+	 *            change the parameters of a single one
+	 */
+	public Islands(int count, Engine engine) {
+		colonies = new AntAlgorithm[count];
+		for (int i = 0; i < count; i++) {
+			colonies[i] = new AntAlgorithm();
+			colonies[i].setEngine(engine);
+		}
+	}
+
+	public AntAlgorithm colony(int index) {
+		return colonies[index];
+	}
+
+	/**
+	 * @return length of the best tour of all colonies
+	 */
+	public double getBestLength() {
+		Tour tour = best.get();
+		return (tour != null) ? tour.length : Double.MAX_VALUE;
+	}
+
+	/**
+	 * @return the best tour of all colonies
+	 */
+	public int[] getBestPath() {
+		Tour tour = best.get();
+		return (tour != null) ? tour.path.clone() : null;
+	}
+
+	/**
+	 * Run all colonies on the instance and wait until they are done
+	 */
+	public void start(Instance instance) {
+		SplittableRandom random = new SplittableRandom(seed);
+		for (AntAlgorithm colony : colonies)
+			colony.random = random.split();
+		published = new AtomicReferenceArray<>(colonies.length);
+		best.set(null);
+
+		Workers workers = new Workers(colonies.length);
+		try {
+			workers.run(colonies.length, i -> run(i, instance));
+		} finally {
+			workers.shutdown();
+		}
+	}
+
+	void run(int index, Instance instance) {
+		AntAlgorithm colony = colonies[index];
+		colony.init(instance);
+		for (int it = 1; it <= iterations; it++) {
+			colony.iterate();
+			if (it % migrationInterval == 0)
+				migrate(index);
+		}
+		offer(new Tour(colony.bestPath.clone(), colony.bestPathLength));
+
+		if (colony.workers != null) {
+			colony.workers.shutdown();
+			colony.workers = null;
+		}
+	}
+
+	/**
+	 * Publish the colony's best tour and adopt a better one from the
+	 * topology. Runs on the colony's own thread between two iterations.
+	 */
+	void migrate(int index) {
+		AntAlgorithm colony = colonies[index];
+		Tour own = new Tour(colony.bestPath.clone(), colony.bestPathLength);
+		published.set(index, own);
+		offer(own);
+
+		Tour other;
+		if (topology == Topology.RING)
+			other = published.get((index + colonies.length - 1) % colonies.length);
+		else
+			other = best.get();
+		if (other != null && other.length < colony.bestPathLength)
+			colony.adoptTour(other.path, other.length);
+	}
+
+	void offer(Tour tour) {
+		best.accumulateAndGet(tour,
+				(cur, next) -> (cur == null || next.length < cur.length) ? next : cur);
+	}
+
+	public static void main(String[] args) throws IOException {
+		int count = (args.length > 0) ? Integer.parseInt(args[0])
+				: Runtime.getRuntime().availableProcessors();
+		Engine engine = (args.length > 1) ? Engine.valueOf(args[1])
+				: Engine.MAX_MIN_ANT_SYSTEM;
+		Islands islands = new Islands(count, engine);
+		if (args.length > 2)
+			islands.topology = Topology.valueOf(args[2]);
+		// spread beta over the colonies so they search differently
+		for (int i = 0; i < count; i++)
+			islands.colony(i).beta += 0.5 * i;
+
+		Instance instance = (args.length > 3) ? TsplibReader.read(args[3])
+				: Instance.random(100, Instance.DEFAULT_MAP_SIZE,
+						new SplittableRandom(islands.seed));
+		islands.start(instance);
+
+		System.out.println("Best Tour: " + islands.getBestLength());
+		for (int i : islands.getBestPath())
+			System.out.print(i + " ");
+		System.out.println();
+	}
+}
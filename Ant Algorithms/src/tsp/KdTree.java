@@ -0,0 +1,274 @@
+package tsp;
+
+/**
+ * Two-dimensional k-d tree over the city coordinates. It answers k nearest
+ * neighbour queries, which builds the candidate lists in O(n k log n)
+ * instead of O(n^2), and nearest-city queries over the cities that have
+ * not been removed yet. Removing a city costs O(log n): every node counts
+ * the cities left below it and empty subtrees are skipped.
+ * <p>
+ * Cities are ranked by the distance function of the instance, ties going
+ * to the lower index, so the answers match a scan over the distance
+ * matrix. The tree prunes with the Euclidean distance to a node's bounding
+ * box, which needs an instance type that is monotone in it (see
+ * Instance.isPlanar).
+ */
+public class KdTree {
+
+	static final int BUCKET = 8; // cities per leaf
+
+	final Instance instance;
+	final double[] x, y;
+	final int n;
+
+	final int[] perm; // cities, every node owns a range of this array
+	final int[] lo, hi; // range of each node
+	final int[] left, right; // children, -1 for a leaf
+	final int[] parent;
+	final double[] minX, maxX, minY, maxY; // bounding box of each node
+	final int[] alive; // cities not yet removed below each node
+	final int[] leafOf; // leaf holding each city
+	final boolean[] removed;
+	int nodes;
+
+	// state of the running nearest query, so those are for one thread only
+	int found;
+	double foundD;
+
+	public KdTree(Instance instance) {
+		if (!instance.isPlanar())
+			throw new IllegalArgumentException("no planar coordinates for "
+					+ instance.getName() + " (" + instance.getType() + ")");
+		this.instance = instance;
+		this.x = instance.x;
+		this.y = instance.y;
+		this.n = instance.size();
+
+		perm = new int[n];
+		for (int i = 0; i < n; i++)
+			perm[i] = i;
+
+		int capacity = 2 * (n / (BUCKET / 2) + 1);
+		lo = new int[capacity];
+		hi = new int[capacity];
+		left = new int[capacity];
+		right = new int[capacity];
+		parent = new int[capacity];
+		minX = new double[capacity];
+		maxX = new double[capacity];
+		minY = new double[capacity];
+		maxY = new double[capacity];
+		alive = new int[capacity];
+		leafOf = new int[n];
+		removed = new boolean[n];
+
+		build(0, n, -1);
+	}
+
+	/**
+	 * @return node owning perm[from, to)
+	 */
+	int build(int from, int to, int up) {
+		int node = nodes++;
+		lo[node] = from;
+		hi[node] = to;
+		parent[node] = up;
+		alive[node] = to - from;
+
+		double x0 = Double.MAX_VALUE, x1 = -Double.MAX_VALUE;
+		double y0 = Double.MAX_VALUE, y1 = -Double.MAX_VALUE;
+		for (int i = from; i < to; i++) {
+			int c = perm[i];
+			x0 = Math.min(x0, x[c]);
+			x1 = Math.max(x1, x[c]);
+			y0 = Math.min(y0, y[c]);
+			y1 = Math.max(y1, y[c]);
+		}
+		minX[node] = x0;
+		maxX[node] = x1;
+		minY[node] = y0;
+		maxY[node] = y1;
+
+		if (to - from <= BUCKET) {
+			left[node] = right[node] = -1;
+			for (int i = from; i < to; i++)
+				leafOf[perm[i]] = node;
+			return node;
+		}
+
+		// split the wider side at the median
+		double[] axis = (x1 - x0 >= y1 - y0) ? x : y;
+		int mid = (from + to) >>> 1;
+		select(axis, from, to - 1, mid);
+		left[node] = build(from, mid, node);
+		right[node] = build(mid, to, node);
+		return node;
+	}
+
+	/**
+	 * Reorder perm[from..to] so that position k holds the city it would
+	 * hold if the range were sorted by the coordinate
+	 */
+	void select(double[] axis, int from, int to, int k) {
+		while (from < to) {
+			double pivot = axis[perm[(from + to) >>> 1]];
+			int i = from, j = to;
+			while (i <= j) {
+				while (axis[perm[i]] < pivot)
+					i++;
+				while (axis[perm[j]] > pivot)
+					j--;
+				if (i <= j) {
+					int tmp = perm[i];
+					perm[i++] = perm[j];
+					perm[j--] = tmp;
+				}
+			}
+			if (k <= j)
+				to = j;
+			else if (k >= i)
+				from = i;
+			else
+				return;
+		}
+	}
+
+	/**
+	 * Take a city out of the nearest queries
+	 */
+	public void remove(int city) {
+		if (removed[city])
+			return;
+		removed[city] = true;
+		for (int node = leafOf[city]; node != -1; node = parent[node])
+			alive[node]--;
+	}
+
+	/**
+	 * Put every removed city back
+	 */
+	public void reset() {
+		for (int i = 0; i < n; i++)
+			removed[i] = false;
+		for (int node = 0; node < nodes; node++)
+			alive[node] = hi[node] - lo[node];
+	}
+
+	/**
+	 * @return lower bound on the distance from the city to anything in the
+	 *         bounding box of the node
+	 */
+	double bound(int city, int node) {
+		double dx = Math.max(0.0, Math.max(minX[node] - x[city], x[city] - maxX[node]));
+		double dy = Math.max(0.0, Math.max(minY[node] - y[city], y[city] - maxY[node]));
+		return instance.lowerBound(dx * dx + dy * dy);
+	}
+
+	/**
+	 * @return child of the node whose box is closer to the city
+	 */
+	int nearChild(int city, int node) {
+		int l = left[node], r = right[node];
+		double dl = box(city, l), dr = box(city, r);
+		return (dl <= dr) ? l : r;
+	}
+
+	double box(int city, int node) {
+		double dx = Math.max(0.0, Math.max(minX[node] - x[city], x[city] - maxX[node]));
+		double dy = Math.max(0.0, Math.max(minY[node] - y[city], y[city] - maxY[node]));
+		return dx * dx + dy * dy;
+	}
+
+	/**
+	 * @return closest city that has not been removed, other than the city
+	 *         itself, or -1 if there is none
+	 */
+	public int nearest(int city) {
+		found = -1;
+		foundD = Double.MAX_VALUE;
+		nearest(city, 0);
+		return found;
+	}
+
+	void nearest(int city, int node) {
+		if (alive[node] == 0)
+			return;
+		if (found != -1 && bound(city, node) > foundD)
+			return;
+
+		if (left[node] == -1) {
+			for (int i = lo[node]; i < hi[node]; i++) {
+				int c = perm[i];
+				if (removed[c] || c == city)
+					continue;
+				double d = instance.distance(city, c);
+				if (d < foundD || (d == foundD && c < found)) {
+					found = c;
+					foundD = d;
+				}
+			}
+			return;
+		}
+
+		int near = nearChild(city, node);
+		nearest(city, near);
+		nearest(city, (near == left[node]) ? right[node] : left[node]);
+	}
+
+	/**
+	 * @param row
+	 *            receives the closest cities, nearest first; its length is
+	 *            the number of neighbours wanted
+	 * @param best
+	 *            scratch space of the same length
+	 */
+	public void nearest(int city, int[] row, double[] best) {
+		nearest(city, 0, row, best, 0);
+	}
+
+	/**
+	 * @return number of neighbours collected so far
+	 */
+	int nearest(int city, int node, int[] row, double[] best, int size) {
+		int k = row.length;
+		if (alive[node] == 0)
+			return size;
+		if (size == k && bound(city, node) > best[k - 1])
+			return size;
+
+		if (left[node] == -1) {
+			for (int i = lo[node]; i < hi[node]; i++) {
+				int c = perm[i];
+				if (removed[c] || c == city)
+					continue;
+				size = insert(row, best, size, c, instance.distance(city, c));
+			}
+			return size;
+		}
+
+		int near = nearChild(city, node);
+		size = nearest(city, near, row, best, size);
+		return nearest(city, (near == left[node]) ? right[node] : left[node],
+				row, best, size);
+	}
+
+	/**
+	 * Like CandidateLists.insert, but the leaves are not visited in index
+	 * order, so equal distances are ordered by index explicitly
+	 */
+	static int insert(int[] row, double[] best, int size, int city, double d) {
+		int k = row.length;
+		if (size == k && (d > best[k - 1] || (d == best[k - 1] && city > row[k - 1])))
+			return size;
+
+		int i = (size < k) ? size++ : k - 1;
+		while (i > 0 && (best[i - 1] > d || (best[i - 1] == d && row[i - 1] > city))) {
+			row[i] = row[i - 1];
+			best[i] = best[i - 1];
+			i--;
+		}
+		row[i] = city;
+		best[i] = d;
+		return size;
+	}
+}
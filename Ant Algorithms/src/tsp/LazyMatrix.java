@@ -0,0 +1,97 @@
+package tsp;
+
+import java.util.Arrays;
+
+/**
+ * Pheromone matrix with lazy evaporation. Instead of multiplying every
+ * entry each iteration, an entry remembers the iteration it was last
+ * written and is decayed by factor^(now - last) when it is read. Scaling by
+ * the evaporation factor then only advances the clock, so an update costs
+ * as much as the edges that actually receive pheromone.
+ * <p>
+ * Reads never drop below FLOOR. An edge that was not deposited on for a
+ * long time would otherwise read as exactly zero, and its choice product
+ * could no longer be told apart from that of any other forgotten edge.
+ */
+public class LazyMatrix extends Matrix {
+
+	static final int MAX_TABLE = 1 << 16;
+	static final double FLOOR = 1e-100; // lowest value a read returns
+
+	final Matrix values; // value of each entry when it was last written
+	final int[] stamp; // iteration of the last write
+	final double factor;
+	final double[] decay; // factor^age, for the ages worth tabulating
+	int now;
+
+	/**
+	 * @param values
+	 *            store for the entries, its contents are taken as written now
+	 * @param factor
+	 *            evaporation factor applied once per iteration (1 - rho)
+	 */
+	public LazyMatrix(Matrix values, double factor) {
+		super(values.n, values.packed);
+		this.values = values;
+		this.stamp = new int[(int) cells(n, packed)];
+		this.factor = factor;
+
+		// stop once the decay underflows, older entries read as FLOOR
+		int length = 1;
+		double d = 1.0;
+		while (length < MAX_TABLE && d * factor > 0.0) {
+			d *= factor;
+			length++;
+		}
+		decay = new double[length];
+		decay[0] = 1.0;
+		for (int age = 1; age < length; age++)
+			decay[age] = decay[age - 1] * factor;
+	}
+
+	double decay(int age) {
+		if (age < decay.length)
+			return decay[age];
+		return (decay.length < MAX_TABLE) ? 0.0 : Math.pow(factor, age);
+	}
+
+	@Override
+	public double get(int from, int to) {
+		return Math.max(values.get(from, to) * decay(now - stamp[index(from, to)]), FLOOR);
+	}
+
+	@Override
+	public void set(int from, int to, double value) {
+		values.set(from, to, value);
+		stamp[index(from, to)] = now;
+	}
+
+	@Override
+	public void fill(double value) {
+		values.fill(value);
+		Arrays.fill(stamp, now);
+	}
+
+	/**
+	 * Scaling by the evaporation factor only ticks the clock. Any other
+	 * factor is applied to every entry right away.
+	 */
+	@Override
+	public void scale(double factor) {
+		if (factor == this.factor) {
+			now++;
+			return;
+		}
+		for (int from = 0; from < n; from++)
+			for (int to = packed ? from : 0; to < n; to++)
+				set(from, to, get(from, to) * factor);
+	}
+
+	@Override
+	public void copyFrom(Matrix other) {
+		LazyMatrix lazy = (LazyMatrix) other;
+		values.copyFrom(lazy.values);
+		System.arraycopy(lazy.stamp, 0, stamp, 0, stamp.length);
+		now = lazy.now;
+	}
+}
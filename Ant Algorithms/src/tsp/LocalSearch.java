@@ -0,0 +1,15 @@
+package tsp;
+
+/**
+ * Improvement applied to every ant's tour before the trails are updated
+ */
+public enum LocalSearch {
+	/** deposit the tours as the ants built them */
+	NONE,
+	/** 2-opt restricted to the candidate lists, with don't-look bits */
+	TWO_OPT,
+	/** Or-opt segment moves on a two-level list tour */
+	OR_OPT,
+	/** 2-opt and Or-opt together on a two-level list tour */
+	OR_2OPT
+}
@@ -0,0 +1,176 @@
+package tsp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Matrix kept in a memory-mapped file instead of on the heap. The OS pages
+ * rows in and out as they are used and the garbage collector never sees
+ * the entries, so large matrices neither need a large heap nor cause long
+ * collections. The file is mapped in chunks of up to 2^27 entries since a
+ * single mapping is limited to 2 GB.
+ * <p>
+ * A small header records the layout and a caller supplied tag (for
+ * distances, Instance.fingerprint). Opening an existing file with the same
+ * layout and tag keeps its entries, so a distance matrix that was marked
+ * complete can be reused by the next run instead of being computed again.
+ */
+public class MappedMatrix extends Matrix {
+
+	static final long MAGIC = 0x41434f4d41545831L; // "ACOMATX1"
+	static final int HEADER = 64;
+	static final int CHUNK_SHIFT = 27;
+	static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+	final Path file;
+	final boolean floats;
+	final int width; // bytes per entry
+	final long entries;
+	final MappedByteBuffer header;
+	final MappedByteBuffer[] chunks;
+
+	/**
+	 * Map a matrix file, creating or resizing it as needed
+	 *
+	 * @param file
+	 *            backing file
+	 * @param floats
+	 *            store floats instead of doubles
+	 * @param tag
+	 *            identifies the contents, a file with another tag is
+	 *            overwritten
+	 */
+	public MappedMatrix(Path file, int n, boolean packed, boolean floats,
+			long tag) throws IOException {
+		super(n, packed, Long.MAX_VALUE);
+		this.file = file;
+		this.floats = floats;
+		this.width = floats ? Float.BYTES : Double.BYTES;
+		this.entries = cells(n, packed);
+
+		int flags = (packed ? 1 : 0) | (floats ? 2 : 0);
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			ByteBuffer old = ByteBuffer.allocate(HEADER);
+			boolean reuse = channel.size() == HEADER + entries * width
+					&& channel.read(old, 0) == HEADER && old.getLong(0) == MAGIC
+					&& old.getInt(8) == n && old.getInt(12) == flags
+					&& old.getLong(16) == tag;
+			if (!reuse)
+				channel.truncate(0);
+
+			header = channel.map(MapMode.READ_WRITE, 0, HEADER);
+			if (!reuse) {
+				header.putLong(0, MAGIC);
+				header.putInt(8, n);
+				header.putInt(12, flags);
+				header.putLong(16, tag);
+				header.putInt(24, 0);
+			}
+
+			int count = (int) ((entries + CHUNK_MASK) >>> CHUNK_SHIFT);
+			chunks = new MappedByteBuffer[count];
+			for (int c = 0; c < count; c++) {
+				long first = (long) c << CHUNK_SHIFT;
+				long size = Math.min(entries - first, 1L << CHUNK_SHIFT) * width;
+				chunks[c] = channel.map(MapMode.READ_WRITE,
+						HEADER + first * width, size);
+				chunks[c].order(ByteOrder.nativeOrder());
+			}
+		}
+	}
+
+	/**
+	 * @return true if the entries were written completely by an earlier
+	 *         run, see {@link #markComplete()}
+	 */
+	public boolean isComplete() {
+		return header.getInt(24) == 1;
+	}
+
+	/**
+	 * Flush the entries and record that the file holds the full matrix
+	 */
+	public void markComplete() {
+		for (MappedByteBuffer chunk : chunks)
+			chunk.force();
+		header.putInt(24, 1);
+		header.force();
+	}
+
+	double read(long entry) {
+		MappedByteBuffer chunk = chunks[(int) (entry >>> CHUNK_SHIFT)];
+		int pos = (int) (entry & CHUNK_MASK) * width;
+		return floats ? chunk.getFloat(pos) : chunk.getDouble(pos);
+	}
+
+	void write(long entry, double value) {
+		MappedByteBuffer chunk = chunks[(int) (entry >>> CHUNK_SHIFT)];
+		int pos = (int) (entry & CHUNK_MASK) * width;
+		if (floats)
+			chunk.putFloat(pos, (float) value);
+		else
+			chunk.putDouble(pos, value);
+	}
+
+	@Override
+	public double get(int from, int to) {
+		return read(offset(from, to));
+	}
+
+	@Override
+	public void set(int from, int to, double value) {
+		write(offset(from, to), value);
+	}
+
+	@Override
+	public void fill(double value) {
+		// walk each chunk through a typed view instead of locating every entry
+		for (MappedByteBuffer chunk : chunks) {
+			if (floats) {
+				FloatBuffer view = chunk.asFloatBuffer();
+				for (int i = 0; i < view.limit(); i++)
+					view.put(i, (float) value);
+			} else {
+				DoubleBuffer view = chunk.asDoubleBuffer();
+				for (int i = 0; i < view.limit(); i++)
+					view.put(i, value);
+			}
+		}
+	}
+
+	@Override
+	public void scale(double factor) {
+		for (MappedByteBuffer chunk : chunks) {
+			if (floats) {
+				FloatBuffer view = chunk.asFloatBuffer();
+				float f = (float) factor;
+				for (int i = 0; i < view.limit(); i++)
+					view.put(i, view.get(i) * f);
+			} else {
+				DoubleBuffer view = chunk.asDoubleBuffer();
+				for (int i = 0; i < view.limit(); i++)
+					view.put(i, view.get(i) * factor);
+			}
+		}
+	}
+
+	@Override
+	public void copyFrom(Matrix other) {
+		MappedMatrix mapped = (MappedMatrix) other;
+		for (int c = 0; c < chunks.length; c++) {
+			chunks[c].clear();
+			chunks[c].put(mapped.chunks[c].duplicate().clear());
+			chunks[c].clear();
+		}
+	}
+}
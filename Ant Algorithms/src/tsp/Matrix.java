@@ -0,0 +1,176 @@
+package tsp;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Square matrix of edge values (distances, pheromone, ...) kept in a single
+ * flat array. Rows are stored one after the other, or, for symmetric data,
+ * only the upper triangle is stored which halves the memory needed.
+ */
+public abstract class Matrix {
+
+	final int n;
+	final boolean packed;
+
+	Matrix(int n, boolean packed) {
+		this(n, packed, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param limit
+	 *            most entries the store can hold
+	 */
+	Matrix(int n, boolean packed, long limit) {
+		this.n = n;
+		this.packed = packed;
+		if (cells(n, packed) > limit)
+			throw new IllegalArgumentException("too many cities for a "
+					+ (packed ? "packed" : "dense") + " matrix: " + n);
+	}
+
+	/**
+	 * For symmetric matrices that store no entries of their own
+	 */
+	Matrix(int n) {
+		this.n = n;
+		this.packed = true;
+	}
+
+	/**
+	 * @param n
+	 *            number of cities
+	 * @param packed
+	 *            store only the upper triangle of a symmetric matrix
+	 * @return matrix holding doubles
+	 */
+	public static Matrix doubles(int n, boolean packed) {
+		return new DoubleMatrix(n, packed);
+	}
+
+	/**
+	 * @see #doubles(int, boolean)
+	 */
+	public static Matrix floats(int n, boolean packed) {
+		return new FloatMatrix(n, packed);
+	}
+
+	/**
+	 * @return matrix storing its entries with the given precision
+	 * @see #doubles(int, boolean)
+	 */
+	public static Matrix create(Precision precision, int n, boolean packed) {
+		switch (precision) {
+		case FLOAT:
+			return floats(n, packed);
+		case INT:
+			return new IntMatrix(n, packed);
+		case SHORT:
+			return new ShortMatrix(n, packed);
+		default:
+			return doubles(n, packed);
+		}
+	}
+
+	/**
+	 * @param file
+	 *            backing file, see MappedMatrix
+	 * @param tag
+	 *            identifies the contents of the file
+	 * @see #doubles(int, boolean)
+	 */
+	public static MappedMatrix mapped(Path file, int n, boolean packed,
+			boolean floats, long tag) throws IOException {
+		return new MappedMatrix(file, n, packed, floats, tag);
+	}
+
+	/**
+	 * @return number of entries needed to store an n x n matrix
+	 */
+	static long cells(int n, boolean packed) {
+		return packed ? (long) n * (n + 1) / 2 : (long) n * n;
+	}
+
+	/**
+	 * @return position of the entry in the flat store
+	 */
+	final int index(int from, int to) {
+		return (int) offset(from, to);
+	}
+
+	/**
+	 * @return position of the entry, for stores larger than an array
+	 */
+	final long offset(int from, int to) {
+		if (!packed)
+			return (long) from * n + to;
+		if (from > to) {
+			int tmp = from;
+			from = to;
+			to = tmp;
+		}
+		// rows of the upper triangle shrink by one entry each
+		return (long) from * n - ((long) from * (from - 1) >> 1) + (to - from);
+	}
+
+	public int size() {
+		return n;
+	}
+
+	public boolean isPacked() {
+		return packed;
+	}
+
+	public abstract double get(int from, int to);
+
+	public abstract void set(int from, int to, double value);
+
+	/**
+	 * Set both directions of an edge
+	 */
+	public void setSymmetric(int from, int to, double value) {
+		set(from, to, value);
+		if (!packed)
+			set(to, from, value);
+	}
+
+	/**
+	 * Add to both directions of an edge
+	 */
+	public void addSymmetric(int from, int to, double value) {
+		setSymmetric(from, to, get(from, to) + value);
+	}
+
+	/**
+	 * Set every entry to max(tau, floor)^alpha * eta of the same edge, the
+	 * choice information of all edges in one pass
+	 */
+	public void setChoice(Matrix tau, double floor, double alpha, Matrix eta) {
+		for (int from = 0; from < n; from++)
+			for (int to = from; to < n; to++)
+				setSymmetric(from, to, FastPow.pow(Math.max(
+						tau.get(from, to), floor), alpha) * eta.get(from, to));
+	}
+
+	/**
+	 * @return true if the other matrix stores its entries in the same order
+	 */
+	boolean sameLayout(Matrix other) {
+		return other.n == n && other.packed == packed;
+	}
+
+	/**
+	 * Set every entry to the same value
+	 */
+	public abstract void fill(double value);
+
+	/**
+	 * Multiply every entry by the same factor
+	 */
+	public abstract void scale(double factor);
+
+	/**
+	 * Copy the entries of a matrix with the same size and layout
+	 */
+	public abstract void copyFrom(Matrix other);
+}
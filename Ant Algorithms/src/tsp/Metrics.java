@@ -0,0 +1,226 @@
+package tsp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Registry of counters, timers and gauges, written out in the Prometheus
+ * text format. Counters and timers are striped LongAdders, so threads that
+ * record at the same time do not contend; gauges are only evaluated when
+ * the metrics are scraped.
+ */
+public class Metrics {
+
+	/**
+	 * A value of a metric family, told apart from the others of the family
+	 * by its labels
+	 */
+	abstract static class Metric {
+		final String name;
+		final String help;
+		final String labels; // name="value" pairs, empty for none
+
+		Metric(String name, String help, String labels) {
+			this.name = name;
+			this.help = help;
+			this.labels = labels;
+		}
+
+		abstract String type();
+
+		abstract void write(StringBuilder out);
+
+		void sample(StringBuilder out, String suffix, double value) {
+			series(out, suffix).append(value).append('\n');
+		}
+
+		void sample(StringBuilder out, String suffix, long value) {
+			series(out, suffix).append(value).append('\n');
+		}
+
+		StringBuilder series(StringBuilder out, String suffix) {
+			out.append(name).append(suffix);
+			if (!labels.isEmpty())
+				out.append('{').append(labels).append('}');
+			return out.append(' ');
+		}
+	}
+
+	public static final class Counter extends Metric {
+		final LongAdder count = new LongAdder();
+
+		Counter(String name, String help, String labels) {
+			super(name, help, labels);
+		}
+
+		public void increment() {
+			count.increment();
+		}
+
+		public void add(long n) {
+			count.add(n);
+		}
+
+		public long get() {
+			return count.sum();
+		}
+
+		@Override
+		String type() {
+			return "counter";
+		}
+
+		@Override
+		void write(StringBuilder out) {
+			sample(out, "", count.sum());
+		}
+	}
+
+	/**
+	 * Number and total time of the recorded events, exported in seconds
+	 */
+	public static final class Timer extends Metric {
+		final LongAdder count = new LongAdder();
+		final LongAdder nanos = new LongAdder();
+
+		Timer(String name, String help, String labels) {
+			super(name, help, labels);
+		}
+
+		public void record(long elapsedNanos) {
+			count.increment();
+			nanos.add(elapsedNanos);
+		}
+
+		/**
+		 * Record the time since start
+		 *
+		 * @return the current System.nanoTime, the start of the next event
+		 */
+		public long since(long start) {
+			long now = System.nanoTime();
+			record(now - start);
+			return now;
+		}
+
+		@Override
+		String type() {
+			return "summary";
+		}
+
+		@Override
+		void write(StringBuilder out) {
+			sample(out, "_count", count.sum());
+			sample(out, "_sum", nanos.sum() / 1e9);
+		}
+	}
+
+	public static final class Gauge extends Metric {
+		final DoubleSupplier value;
+
+		Gauge(String name, String help, String labels, DoubleSupplier value) {
+			super(name, help, labels);
+			this.value = value;
+		}
+
+		@Override
+		String type() {
+			return "gauge";
+		}
+
+		@Override
+		void write(StringBuilder out) {
+			sample(out, "", value.getAsDouble());
+		}
+	}
+
+	final ConcurrentMap<String, Metric> metrics = new ConcurrentHashMap<>();
+
+	/**
+	 * @param labels
+	 *            name="value" pairs separated by commas, empty for none
+	 * @return the counter with that name and labels, created on first use
+	 */
+	public Counter counter(String name, String help, String labels) {
+		return register(new Counter(name, help, labels));
+	}
+
+	/**
+	 * @see #counter(String, String, String)
+	 */
+	public Timer timer(String name, String help, String labels) {
+		return register(new Timer(name, help, labels));
+	}
+
+	/**
+	 * Register a gauge, replacing one with the same name and labels
+	 *
+	 * @see #counter(String, String, String)
+	 */
+	public void gauge(String name, String help, String labels, DoubleSupplier value) {
+		metrics.put(name + "{" + labels + "}", new Gauge(name, help, labels, value));
+	}
+
+	@SuppressWarnings("unchecked")
+	<M extends Metric> M register(M metric) {
+		Metric old = metrics.putIfAbsent(metric.name + "{" + metric.labels + "}", metric);
+		if (old == null)
+			return metric;
+		if (old.getClass() != metric.getClass())
+			throw new IllegalArgumentException(metric.name + " is already a " + old.type());
+		return (M) old;
+	}
+
+	/**
+	 * @return all metrics in the Prometheus text format, families sorted by
+	 *         name
+	 */
+	public String scrape() {
+		Map<String, Metric> sorted = new TreeMap<>(metrics);
+		StringBuilder out = new StringBuilder();
+		String family = null;
+		for (Metric metric : sorted.values()) {
+			if (!metric.name.equals(family)) {
+				family = metric.name;
+				out.append("# HELP ").append(family).append(' ').append(metric.help).append('\n');
+				out.append("# TYPE ").append(family).append(' ').append(metric.type()).append('\n');
+			}
+			metric.write(out);
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Serve the metrics at http://localhost:port/metrics until the returned
+	 * server is stopped
+	 *
+	 * @param port
+	 *            0 for any free port
+	 */
+	public HttpServer serve(int port) throws IOException {
+		HttpServer server = HttpServer.create(
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/metrics", exchange -> {
+			byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type",
+					"text/plain; version=0.0.4; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		server.start();
+		return server;
+	}
+}
@@ -0,0 +1,221 @@
+package tsp;
+
+/**
+ * Or-opt on a two-level list tour: a segment of up to three cities is moved
+ * next to one of the candidates of its end cities, either way round. With
+ * 2-opt enabled the 2-opt moves are tried first, which gives the "or-2opt"
+ * set of sequential 3-opt moves. Both use the candidate lists and
+ * don't-look bits like TwoOpt. An instance keeps its own work arrays, so
+ * use one per thread.
+ */
+public class OrOpt {
+
+	static final double EPSILON = 1e-9;
+	static final int MAX_SEGMENT = 3;
+
+	final Matrix distance;
+	final int[][] nnList;
+	final int n;
+	final boolean twoOpt;
+	final TwoLevelList tour;
+
+	final int[] queue; // cities whose don't-look bit is off
+	final boolean[] queued;
+	int head, size;
+
+	/**
+	 * @param twoOpt
+	 *            also try 2-opt moves
+	 */
+	public OrOpt(Matrix distance, int[][] nnList, boolean twoOpt) {
+		this.distance = distance;
+		this.nnList = nnList;
+		this.n = nnList.length;
+		this.twoOpt = twoOpt;
+		tour = new TwoLevelList(n);
+		queue = new int[n];
+		queued = new boolean[n];
+	}
+
+	/**
+	 * Improve a tour in place
+	 *
+	 * @param path
+	 *            city order, modified in place
+	 * @param length
+	 *            current length of the tour
+	 * @return length of the improved tour
+	 */
+	public double improve(int[] path, double length) {
+		// the moves need a few cities outside the segment
+		if (n < 2 * MAX_SEGMENT + 2)
+			return length;
+
+		tour.load(path);
+		head = 0;
+		size = 0;
+		for (int i = 0; i < n; i++)
+			queued[path[i]] = false;
+		for (int i = 0; i < n; i++)
+			push(path[i]);
+
+		while (size > 0) {
+			int city = pop();
+			double gain = twoOpt ? twoOptMove(city) : 0.0;
+			if (gain == 0.0)
+				gain = orOptMove(city);
+			length -= gain;
+		}
+
+		tour.store(path);
+		return length;
+	}
+
+	/**
+	 * @return gain of the applied 2-opt move, zero if there was none
+	 */
+	double twoOptMove(int c1) {
+		// c1 -> succ: replace (c1,c2),(c3,c4) by (c1,c3),(c2,c4)
+		int c2 = tour.next(c1);
+		double radius = distance.get(c1, c2);
+		for (int c3 : nnList[c1]) {
+			double d13 = distance.get(c1, c3);
+			if (d13 >= radius)
+				break;
+			int c4 = tour.next(c3);
+			double gain = radius + distance.get(c3, c4) - d13
+					- distance.get(c2, c4);
+			if (gain > EPSILON) {
+				tour.reverse(c2, c3);
+				wake(c1, c2, c3, c4);
+				return gain;
+			}
+		}
+
+		// pred -> c1: replace (c2,c1),(c4,c3) by (c1,c3),(c2,c4)
+		c2 = tour.prev(c1);
+		radius = distance.get(c2, c1);
+		for (int c3 : nnList[c1]) {
+			double d13 = distance.get(c1, c3);
+			if (d13 >= radius)
+				break;
+			int c4 = tour.prev(c3);
+			double gain = radius + distance.get(c4, c3) - d13
+					- distance.get(c2, c4);
+			if (gain > EPSILON) {
+				tour.reverse(c1, c4);
+				wake(c1, c2, c3, c4);
+				return gain;
+			}
+		}
+		return 0.0;
+	}
+
+	/**
+	 * Try to move the segments that start at s1
+	 *
+	 * @return gain of the applied move, zero if there was none
+	 */
+	double orOptMove(int s1) {
+		int s2 = s1;
+		for (int len = 1; len <= MAX_SEGMENT; len++) {
+			if (len > 1)
+				s2 = tour.next(s2);
+
+			int p = tour.prev(s1);
+			int nx = tour.next(s2);
+			double removed = distance.get(p, s1) + distance.get(s2, nx)
+					- distance.get(p, nx);
+			if (removed <= EPSILON)
+				continue;
+
+			// attach either end of the segment to one of its candidates
+			for (int end = 0; end < (len == 1 ? 1 : 2); end++) {
+				int e = (end == 0) ? s1 : s2;
+				int o = (end == 0) ? s2 : s1;
+				for (int c : nnList[e]) {
+					double dec = distance.get(e, c);
+					if (dec >= removed)
+						break;
+					if (inSegment(c, s1, len))
+						continue;
+
+					// c, e ... o, next(c)
+					if (c != p) {
+						int y = tour.next(c);
+						double gain = removed - dec - distance.get(o, y)
+								+ distance.get(c, y);
+						if (gain > EPSILON) {
+							moveSegment(s1, s2, c, y, e == s2);
+							wake(p, nx, s1, s2);
+							wake(c, y, c, y);
+							return gain;
+						}
+					}
+
+					// prev(c), o ... e, c
+					if (c != nx) {
+						int x = tour.prev(c);
+						double gain = removed - dec - distance.get(x, o)
+								+ distance.get(x, c);
+						if (gain > EPSILON) {
+							moveSegment(s1, s2, x, c, e == s1);
+							wake(p, nx, s1, s2);
+							wake(x, c, x, c);
+							return gain;
+						}
+					}
+				}
+			}
+		}
+		return 0.0;
+	}
+
+	boolean inSegment(int city, int s1, int len) {
+		for (int i = 0; i < len; i++, s1 = tour.next(s1))
+			if (city == s1)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Move the path s1..s2 between x and y = next(x), as a sequence of
+	 * reversals on the list
+	 *
+	 * @param flipped
+	 *            true for x, s2 ... s1, y and false for x, s1 ... s2, y
+	 */
+	void moveSegment(int s1, int s2, int x, int y, boolean flipped) {
+		int nx = tour.next(s2);
+		// p s1..s2 nx ... x y  ->  p x ... nx s2..s1 y
+		tour.reverse(s1, x);
+		// ->  p nx ... x s2..s1 y
+		tour.reverse(x, nx);
+		if (!flipped)
+			tour.reverse(s2, s1);
+	}
+
+	void wake(int a, int b, int c, int d) {
+		push(a);
+		push(b);
+		push(c);
+		push(d);
+	}
+
+	void push(int city) {
+		if (queued[city])
+			return;
+		queued[city] = true;
+		int tail = head + size;
+		queue[tail >= n ? tail - n : tail] = city;
+		size++;
+	}
+
+	int pop() {
+		int city = queue[head];
+		head = (head + 1 == n) ? 0 : head + 1;
+		size--;
+		queued[city] = false; // don't-look bit set until woken again
+		return city;
+	}
+}
@@ -1,49 +1,159 @@
 package tsp;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
+/**
+ * Exhaustive enumeration of the tours, kept as a fallback and cross-check
+ * for the exact solvers. City 0 is fixed in front and a tour is only
+ * completed when its second city is lower than its last, so every cycle is
+ * visited once instead of in all 2n rotations and directions. Partial tours
+ * that are already longer than the best tour are cut off, and the prefixes
+ * of the first few positions are spread over a ForkJoinPool.
+ */
 public class Permutate {
-	
-	float distance[][];
-	
-	
-	public double solveTSP(float distance[][]) {
+
+	static final int SPLIT_DEPTH = 3; // prefixes up to here become tasks
+
+	Matrix distance;
+	double[][] d;
+	int n;
+	volatile double bestTour;
+	int[] bestPath;
+
+
+	public double solveTSP(Matrix distance) {
 		this.distance = distance;
-		List<Integer> cities = new ArrayList<>();
-		for(int i = 0; i < distance.length; i++) cities.add(i);
-		
-		double bestTour = Double.MAX_VALUE;
-		permute(cities, 0, bestTour);
-		
+		n = distance.size();
+		d = new double[n][n];
+		for (int i = 0; i < n; i++)
+			for (int j = 0; j < n; j++)
+				d[i][j] = distance.get(i, j);
+
+		int[] tour = new int[n];
+		for (int i = 0; i < n; i++)
+			tour[i] = i;
+		bestTour = Double.MAX_VALUE;
+		bestPath = null;
+
+		if (n <= 3) {
+			// a single tour, the mirror rule would skip it
+			double length = 0.0;
+			for (int i = 0; i < n; i++)
+				length += d[tour[i]][tour[(i + 1) % n]];
+			bestTour = length;
+			bestPath = tour;
+			return bestTour;
+		}
+
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			pool.invoke(new Prefix(tour, 1, 0.0));
+		} finally {
+			pool.shutdown();
+		}
 		return bestTour;
 	}
 
-	private void permute(List<Integer> arr, int k, double bestTour) {
-		for(int i = k;  i < arr.size(); i++) {
-			Collections.swap(arr, i , k);
-			permute(arr, k + 1, bestTour);
-			Collections.swap(arr, k, i);
+	/**
+	 * @return the shortest tour, starting at city 0
+	 */
+	public int[] getTour() {
+		return bestPath;
+	}
+
+	/**
+	 * All tours that start with tour[0..k-1]
+	 */
+	class Prefix extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		final int[] tour;
+		final int k;
+		final double length;
+
+		Prefix(int[] tour, int k, double length) {
+			this.tour = tour;
+			this.k = k;
+			this.length = length;
 		}
-		if (k == arr.size() -1){
-            //System.out.println(java.util.Arrays.toString(arr.toArray()));
-			double tourLength = 0;
-			for(int i = 0; i < arr.size(); i++) {
-				int to, from;
-				to = (i == arr.size() - 1) ? 0 : i + 1; 
-				from = i;
-				tourLength += distance[to][from];
-				bestTour = Math.min(tourLength, bestTour);
+
+		@Override
+		protected void compute() {
+			if (k > SPLIT_DEPTH || n - k <= 3) {
+				permute(tour, k, length);
+				return;
+			}
+			if (length >= bestTour || mirrored(tour, k))
+				return;
+
+			List<Prefix> tasks = new ArrayList<>(n - k);
+			for (int i = k; i < n; i++) {
+				int[] next = tour.clone();
+				swap(next, k, i);
+				tasks.add(new Prefix(next, k + 1, length + d[next[k - 1]][next[k]]));
 			}
-        }
+			invokeAll(tasks);
+		}
+	}
+
+	/**
+	 * Extend the prefix tour[0..k-1] in every way
+	 */
+	void permute(int[] tour, int k, double length) {
+		if (length >= bestTour)
+			return;
+		if (k == n) {
+			if (tour[1] < tour[n - 1])
+				offer(tour, length + d[tour[n - 1]][0]);
+			return;
+		}
+		if (mirrored(tour, k))
+			return;
+
+		for (int i = k; i < n; i++) {
+			swap(tour, k, i);
+			permute(tour, k + 1, length + d[tour[k - 1]][tour[k]]);
+			swap(tour, k, i);
+		}
 	}
-	
+
+	/**
+	 * @return true if every completion of the prefix ends below its second
+	 *         city, so it is the mirror image of a tour visited elsewhere
+	 */
+	boolean mirrored(int[] tour, int k) {
+		if (k < 2)
+			return false;
+		for (int i = k; i < n; i++)
+			if (tour[i] > tour[1])
+				return false;
+		return true;
+	}
+
+	synchronized void offer(int[] tour, double length) {
+		if (length < bestTour) {
+			bestTour = length;
+			bestPath = tour.clone();
+		}
+	}
+
+	static void swap(int[] tour, int i, int j) {
+		int tmp = tour[i];
+		tour[i] = tour[j];
+		tour[j] = tmp;
+	}
+
 	public static void main(String[] args) {
 		ACO aco = new ACO();
-		aco.initACO();
+		aco.initACO(Instance.random(12, 100, new SplittableRandom()));
 		Permutate perm = new Permutate();
 		System.out.println(perm.solveTSP(aco.precomp_distance));
+		for (int city : perm.getTour())
+			System.out.print(city + " ");
+		System.out.println();
 	}
 }
@@ -0,0 +1,27 @@
+package tsp;
+
+/**
+ * How the matrices of a colony store their entries. Distances use the
+ * chosen type; pheromone, heuristic and choice information stay doubles
+ * for DOUBLE and are floats otherwise, see {@link #trails()}.
+ */
+public enum Precision {
+	/** 8 bytes per entry */
+	DOUBLE,
+	/** 4 bytes per entry */
+	FLOAT,
+	/**
+	 * distances rounded to integers as TSPLIB defines them, 4 bytes per
+	 * entry
+	 */
+	INT,
+	/** integer distances up to 65535, 2 bytes per entry */
+	SHORT;
+
+	/**
+	 * @return precision of the pheromone, heuristic and choice information
+	 */
+	public Precision trails() {
+		return (this == DOUBLE) ? DOUBLE : FLOAT;
+	}
+}
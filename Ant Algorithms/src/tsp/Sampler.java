@@ -0,0 +1,71 @@
+package tsp;
+
+/**
+ * Roulette-wheel selection over a candidate list. Visited cities are skipped
+ * and weights[i] belongs to candidates[i].
+ */
+public class Sampler {
+
+	/**
+	 * @param denom
+	 *            total weight of the unvisited candidates
+	 * @param u
+	 *            uniform number in [0, 1)
+	 * @return selected city, or -1 if every candidate has been visited
+	 */
+	public static int cumulative(int[] candidates, double[] weights,
+			boolean[] visited, double denom, double u) {
+		double target = u * denom;
+		double sum = 0.0;
+		int last = -1;
+
+		for (int i = 0; i < candidates.length; i++) {
+			int city = candidates[i];
+			if (!visited[city]) {
+				sum += weights[i];
+				last = city;
+				if (sum > target)
+					return city;
+			}
+		}
+		// denom is maintained incrementally and may be off by rounding
+		return last;
+	}
+
+	/**
+	 * @param prefix
+	 *            scratch space for the prefix sums, one per candidate
+	 * @param slots
+	 *            scratch space for the matching cities
+	 * @param u
+	 *            uniform number in [0, 1)
+	 * @return selected city, or -1 if every candidate has been visited
+	 */
+	public static int binarySearch(int[] candidates, double[] weights,
+			boolean[] visited, double[] prefix, int[] slots, double u) {
+		int size = 0;
+		double sum = 0.0;
+
+		for (int i = 0; i < candidates.length; i++) {
+			int city = candidates[i];
+			if (!visited[city]) {
+				sum += weights[i];
+				prefix[size] = sum;
+				slots[size++] = city;
+			}
+		}
+		if (size == 0)
+			return -1;
+
+		double target = u * sum;
+		int lo = 0, hi = size - 1;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (prefix[mid] > target)
+				hi = mid;
+			else
+				lo = mid + 1;
+		}
+		return slots[lo];
+	}
+}
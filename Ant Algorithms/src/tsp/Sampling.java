@@ -0,0 +1,15 @@
+package tsp;
+
+/**
+ * How an ant draws its next city from the candidate list. Every strategy
+ * uses a single uniform number per step (alias sampling needs a second one
+ * only when it hits an already visited city).
+ */
+public enum Sampling {
+	/** linear scan over the running sum of the unvisited candidates */
+	CUMULATIVE,
+	/** binary search over a prefix sum of the unvisited candidates */
+	BINARY_SEARCH,
+	/** Walker alias table per candidate list, rebuilt every iteration */
+	ALIAS
+}
@@ -0,0 +1,53 @@
+package tsp;
+
+import java.util.Arrays;
+
+/**
+ * Matrix of integer distances up to 65535, two bytes per entry. The
+ * entries are kept in a char array, Java's unsigned 16 bit type.
+ */
+public class ShortMatrix extends Matrix {
+
+	static final int MAX_VALUE = Character.MAX_VALUE;
+
+	final char[] values;
+
+	public ShortMatrix(int n, boolean packed) {
+		super(n, packed);
+		values = new char[(int) cells(n, packed)];
+	}
+
+	static char round(double value) {
+		long rounded = Math.round(value);
+		if (rounded < 0 || rounded > MAX_VALUE)
+			throw new IllegalArgumentException("distance does not fit a short: " + value);
+		return (char) rounded;
+	}
+
+	@Override
+	public double get(int from, int to) {
+		return values[index(from, to)];
+	}
+
+	@Override
+	public void set(int from, int to, double value) {
+		values[index(from, to)] = round(value);
+	}
+
+	@Override
+	public void fill(double value) {
+		Arrays.fill(values, round(value));
+	}
+
+	@Override
+	public void scale(double factor) {
+		for (int i = 0; i < values.length; i++)
+			values[i] = round(values[i] * factor);
+	}
+
+	@Override
+	public void copyFrom(Matrix other) {
+		System.arraycopy(((ShortMatrix) other).values, 0, values, 0,
+				values.length);
+	}
+}
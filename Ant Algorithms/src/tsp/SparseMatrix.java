@@ -0,0 +1,141 @@
+package tsp;
+
+import java.util.Arrays;
+
+/**
+ * Symmetric matrix that only stores the candidate edges, in fixed-width
+ * rows aligned with the candidate lists, so it needs O(n k) memory instead
+ * of O(n^2). Every other edge reads a shared default value. Writes to
+ * those edges are dropped, which suits pheromone: with candidate lists the
+ * ants almost never leave the candidate edges, and evaporation still
+ * applies to the default value.
+ * <p>
+ * An edge that is a candidate of both its cities lives in the row of the
+ * lower city only, so both directions always read the same value. A small
+ * hash table per row finds the position of a city in a candidate list, and
+ * the slot of every candidate position is resolved once up front, so a read
+ * or write costs O(1) instead of scanning the rows.
+ * <p>
+ * Scaling keeps the entries above LazyMatrix.FLOOR, so evaporated edges
+ * still rank by their heuristic.
+ */
+public class SparseMatrix extends Matrix {
+
+	final int[][] nnList;
+	final int k;
+	final double[] values; // row * k + position, like CandidateLists.reverse
+	final int[] slots; // slot in values of each candidate position
+	final short[] index; // per row: hashed city -> position + 1, 0 if empty
+	final int tableBits;
+	double outside; // value of the edges that are not stored
+
+	/**
+	 * @param nnList
+	 *            candidate lists, all of the same length
+	 */
+	public SparseMatrix(int[][] nnList) {
+		super(nnList.length);
+		this.nnList = nnList;
+		this.k = nnList[0].length;
+		if (k >= Short.MAX_VALUE)
+			throw new IllegalArgumentException("candidate lists too long: " + k);
+		this.values = new double[n * k];
+
+		// tables at most half full keep the probe sequences short
+		int bits = 1;
+		while ((1 << bits) < 2 * k)
+			bits++;
+		tableBits = bits;
+		index = new short[n << bits];
+		for (int from = 0; from < n; from++)
+			for (int i = 0; i < k; i++) {
+				int h = hash(nnList[from][i]);
+				while (index[(from << bits) + h] != 0)
+					h = (h + 1) & ((1 << bits) - 1);
+				index[(from << bits) + h] = (short) (i + 1);
+			}
+
+		// an edge in both lists is stored in the row of its lower city
+		int[][] reverse = CandidateLists.reverse(nnList);
+		slots = new int[n * k];
+		for (int from = 0; from < n; from++)
+			for (int i = 0; i < k; i++) {
+				int to = nnList[from][i];
+				slots[from * k + i] = from * k + i;
+				if (to < from)
+					for (int s : reverse[from])
+						if (s / k == to)
+							slots[from * k + i] = s;
+			}
+	}
+
+	int hash(int city) {
+		return (city * 0x9E3779B9) >>> (32 - tableBits);
+	}
+
+	/**
+	 * @return position of to in the candidate list of from, -1 if absent
+	 */
+	int position(int from, int to) {
+		int mask = (1 << tableBits) - 1;
+		for (int h = hash(to);; h = (h + 1) & mask) {
+			int i = index[(from << tableBits) + h] - 1;
+			if (i == -1 || nnList[from][i] == to)
+				return i;
+		}
+	}
+
+	/**
+	 * @return slot of the edge, or -1 if it is not a candidate edge
+	 */
+	int slot(int from, int to) {
+		int i = position(from, to);
+		if (i != -1)
+			return slots[from * k + i];
+		i = position(to, from);
+		return (i != -1) ? slots[to * k + i] : -1;
+	}
+
+	@Override
+	public double get(int from, int to) {
+		int s = slot(from, to);
+		return (s == -1) ? outside : values[s];
+	}
+
+	/**
+	 * Only candidate edges can be set, other edges keep the default value
+	 */
+	@Override
+	public void set(int from, int to, double value) {
+		int s = slot(from, to);
+		if (s != -1)
+			values[s] = value;
+	}
+
+	@Override
+	public void addSymmetric(int from, int to, double value) {
+		int s = slot(from, to);
+		if (s != -1)
+			values[s] += value;
+	}
+
+	@Override
+	public void fill(double value) {
+		Arrays.fill(values, value);
+		outside = value;
+	}
+
+	@Override
+	public void scale(double factor) {
+		for (int i = 0; i < values.length; i++)
+			values[i] = Math.max(values[i] * factor, LazyMatrix.FLOOR);
+		outside = Math.max(outside * factor, LazyMatrix.FLOOR);
+	}
+
+	@Override
+	public void copyFrom(Matrix other) {
+		SparseMatrix sparse = (SparseMatrix) other;
+		System.arraycopy(sparse.values, 0, values, 0, values.length);
+		outside = sparse.outside;
+	}
+}
@@ -0,0 +1,11 @@
+package tsp;
+
+/**
+ * Where the colonies of an island model look for better tours
+ */
+public enum Topology {
+	/** every colony reads the tour published by the colony before it */
+	RING,
+	/** every colony reads the best tour found by any colony */
+	ALL_TO_BEST
+}
@@ -0,0 +1,370 @@
+package tsp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads symmetric TSPLIB instances (EUC_2D, CEIL_2D, ATT, GEO and EXPLICIT
+ * in every matrix format). The file is streamed through a fixed buffer and
+ * numbers are parsed straight from the bytes into the coordinate arrays;
+ * only the few header values become strings.
+ */
+public class TsplibReader {
+
+	static final int BUFFER_SIZE = 1 << 16;
+	static final double[] POW10 = new double[23];
+
+	static {
+		POW10[0] = 1.0;
+		for (int i = 1; i < POW10.length; i++)
+			POW10[i] = POW10[i - 1] * 10.0;
+	}
+
+	final ReadableByteChannel channel;
+	final ByteBuffer buffer;
+	final byte[] bytes;
+	int pos, limit;
+	boolean eof;
+
+	String name = "";
+	Instance.Type type;
+	String format = "FUNCTION";
+	int dimension = -1;
+
+	TsplibReader(ReadableByteChannel channel) {
+		this.channel = channel;
+		this.bytes = new byte[BUFFER_SIZE];
+		this.buffer = ByteBuffer.wrap(bytes);
+	}
+
+	/**
+	 * @param file
+	 *            TSPLIB file
+	 * @return the instance it describes
+	 */
+	public static Instance read(String file) throws IOException {
+		return read(Paths.get(file));
+	}
+
+	/**
+	 * @see #read(String)
+	 */
+	public static Instance read(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return read(channel);
+		}
+	}
+
+	/**
+	 * @param channel
+	 *            stream holding a TSPLIB file, left open
+	 * @return the instance it describes
+	 */
+	public static Instance read(ReadableByteChannel channel) throws IOException {
+		return new TsplibReader(channel).parse();
+	}
+
+	Instance parse() throws IOException {
+		Instance instance = null;
+
+		while (true) {
+			String keyword = keyword();
+			if (keyword == null || keyword.equals("EOF"))
+				break;
+
+			switch (keyword) {
+			case "NAME":
+				name = value();
+				break;
+			case "TYPE": {
+				String value = value();
+				if (!value.equals("TSP"))
+					throw new IOException("unsupported TYPE " + value);
+				break;
+			}
+			case "DIMENSION":
+				dimension = Integer.parseInt(value());
+				break;
+			case "EDGE_WEIGHT_TYPE": {
+				String value = value();
+				try {
+					type = Instance.Type.valueOf(value);
+				} catch (IllegalArgumentException e) {
+					throw new IOException("unsupported EDGE_WEIGHT_TYPE " + value);
+				}
+				break;
+			}
+			case "EDGE_WEIGHT_FORMAT":
+				format = value();
+				break;
+			case "NODE_COORD_SECTION":
+				instance = instance(instance);
+				readCoordinates(instance, true);
+				break;
+			case "DISPLAY_DATA_SECTION":
+				// only places the cities of instances without coordinates,
+				// the distances of the others are defined on NODE_COORD_SECTION
+				instance = instance(instance);
+				readCoordinates(instance, type == Instance.Type.EXPLICIT);
+				break;
+			case "EDGE_WEIGHT_SECTION":
+				instance = instance(instance);
+				readWeights(instance);
+				break;
+			default:
+				// COMMENT, NODE_COORD_TYPE, DISPLAY_DATA_TYPE, ...
+				value();
+				break;
+			}
+		}
+
+		if (instance == null)
+			throw new IOException("no data section in " + name);
+		if (type == Instance.Type.EXPLICIT && instance.weights == null)
+			throw new IOException("EXPLICIT instance without EDGE_WEIGHT_SECTION");
+		if (type != Instance.Type.EXPLICIT && instance.x == null)
+			throw new IOException("missing NODE_COORD_SECTION");
+		if (type == Instance.Type.GEO)
+			instance.computeGeo();
+		return instance;
+	}
+
+	Instance instance(Instance instance) throws IOException {
+		if (instance != null)
+			return instance;
+		if (dimension <= 0)
+			throw new IOException("DIMENSION must come before the data");
+		if (type == null)
+			throw new IOException("EDGE_WEIGHT_TYPE must come before the data");
+		return new Instance(name, type, dimension);
+	}
+
+	/**
+	 * @param keep
+	 *            store the coordinates, otherwise the section is only
+	 *            skipped
+	 */
+	void readCoordinates(Instance instance, boolean keep) throws IOException {
+		int n = instance.dimension;
+		double[] x = new double[n], y = new double[n];
+		for (int i = 0; i < n; i++) {
+			int node = integer() - 1;
+			if (node < 0 || node >= n)
+				throw new IOException("node " + (node + 1) + " out of range");
+			x[node] = number();
+			y[node] = number();
+		}
+		if (keep) {
+			instance.x = x;
+			instance.y = y;
+		}
+	}
+
+	void readWeights(Instance instance) throws IOException {
+		int n = instance.dimension;
+		Matrix weights = Matrix.doubles(n, true);
+
+		switch (format) {
+		case "FULL_MATRIX":
+			for (int i = 0; i < n; i++)
+				for (int j = 0; j < n; j++)
+					weights.set(i, j, number());
+			break;
+		case "UPPER_ROW":
+		case "LOWER_COL":
+			for (int i = 0; i < n; i++)
+				for (int j = i + 1; j < n; j++)
+					weights.set(i, j, number());
+			break;
+		case "LOWER_ROW":
+		case "UPPER_COL":
+			for (int i = 0; i < n; i++)
+				for (int j = 0; j < i; j++)
+					weights.set(i, j, number());
+			break;
+		case "UPPER_DIAG_ROW":
+		case "LOWER_DIAG_COL":
+			for (int i = 0; i < n; i++)
+				for (int j = i; j < n; j++)
+					weights.set(i, j, number());
+			break;
+		case "LOWER_DIAG_ROW":
+		case "UPPER_DIAG_COL":
+			for (int i = 0; i < n; i++)
+				for (int j = 0; j <= i; j++)
+					weights.set(i, j, number());
+			break;
+		default:
+			throw new IOException("unsupported EDGE_WEIGHT_FORMAT " + format);
+		}
+		instance.weights = weights;
+	}
+
+	// =====================
+	// TOKENIZER
+	// =====================
+
+	int read() throws IOException {
+		if (pos == limit && !fill())
+			return -1;
+		return bytes[pos++];
+	}
+
+	int peek() throws IOException {
+		if (pos == limit && !fill())
+			return -1;
+		return bytes[pos];
+	}
+
+	boolean fill() throws IOException {
+		if (eof)
+			return false;
+		buffer.clear();
+		int read;
+		do {
+			read = channel.read(buffer);
+		} while (read == 0);
+		if (read < 0) {
+			eof = true;
+			return false;
+		}
+		pos = 0;
+		limit = read;
+		return true;
+	}
+
+	static boolean isSpace(int b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+	}
+
+	static boolean isDigit(int b) {
+		return b >= '0' && b <= '9';
+	}
+
+	void skipSpace() throws IOException {
+		while (isSpace(peek()))
+			pos++;
+	}
+
+	/**
+	 * @return next keyword without a trailing colon, null at the end
+	 */
+	String keyword() throws IOException {
+		skipSpace();
+		StringBuilder sb = new StringBuilder();
+		int b;
+		while ((b = peek()) != -1 && !isSpace(b) && b != ':') {
+			sb.append((char) b);
+			pos++;
+		}
+		return sb.length() == 0 ? null : sb.toString();
+	}
+
+	/**
+	 * @return rest of a header line after the optional colon
+	 */
+	String value() throws IOException {
+		int b;
+		while ((b = peek()) == ' ' || b == '\t')
+			pos++;
+		if (b == ':')
+			pos++;
+		StringBuilder sb = new StringBuilder();
+		while ((b = read()) != -1 && b != '\n')
+			sb.append((char) b);
+		return sb.toString().trim();
+	}
+
+	int integer() throws IOException {
+		skipSpace();
+		int b = read();
+		boolean negative = b == '-';
+		if (b == '-' || b == '+')
+			b = read();
+		if (!isDigit(b))
+			throw new IOException("integer expected, got '" + (char) b + "'");
+		int value = 0;
+		while (isDigit(b)) {
+			value = value * 10 + (b - '0');
+			b = read();
+		}
+		if (b != -1)
+			pos--;
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Parse a decimal number such as 12, -3.5 or 1.2e+03 from the bytes.
+	 * Up to 18 significant digits are kept, which is exact for the values
+	 * found in TSPLIB files.
+	 */
+	double number() throws IOException {
+		skipSpace();
+		int b = read();
+		boolean negative = b == '-';
+		if (b == '-' || b == '+')
+			b = read();
+
+		long mantissa = 0;
+		int significant = 0;
+		int exponent = 0;
+		boolean digits = false;
+
+		while (isDigit(b)) {
+			digits = true;
+			if (significant < 18) {
+				mantissa = mantissa * 10 + (b - '0');
+				if (mantissa != 0)
+					significant++;
+			} else {
+				exponent++;
+			}
+			b = read();
+		}
+		if (b == '.') {
+			b = read();
+			while (isDigit(b)) {
+				digits = true;
+				if (significant < 18) {
+					mantissa = mantissa * 10 + (b - '0');
+					if (mantissa != 0)
+						significant++;
+					exponent--;
+				}
+				b = read();
+			}
+		}
+		if (!digits)
+			throw new IOException("number expected, got '" + (char) b + "'");
+		if (b == 'e' || b == 'E') {
+			b = read();
+			boolean negativeExp = b == '-';
+			if (b == '-' || b == '+')
+				b = read();
+			int e = 0;
+			while (isDigit(b)) {
+				e = e * 10 + (b - '0');
+				b = read();
+			}
+			exponent += negativeExp ? -e : e;
+		}
+		if (b != -1)
+			pos--;
+
+		double value;
+		if (exponent == 0)
+			value = mantissa;
+		else if (exponent > 0)
+			value = (exponent < POW10.length) ? mantissa * POW10[exponent]
+					: mantissa * Math.pow(10, exponent);
+		else
+			value = (-exponent < POW10.length) ? mantissa / POW10[-exponent]
+					: mantissa / Math.pow(10, -exponent);
+		return negative ? -value : value;
+	}
+}
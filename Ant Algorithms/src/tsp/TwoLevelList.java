@@ -0,0 +1,251 @@
+package tsp;
+
+/**
+ * Tour kept as a two-level doubly-linked list. The cities are stored in an
+ * array that is cut into segments of about sqrt(n) cities; the segments form
+ * a doubly-linked ring and each carries a reversed bit. Reversing a path
+ * splits at most two segments and then only relinks and flips whole
+ * segments, so it costs O(sqrt(n)) instead of O(n) on an array tour. Once
+ * the splits have doubled the number of segments the list is regrouped.
+ */
+public class TwoLevelList {
+
+	final int n;
+	final int groupSize;
+	final int maxSegments; // regroup once there are more segments than this
+
+	int[] order; // cities, every segment is a range of this array
+	int[] spare;
+	final int[] idx; // position of each city in order
+	final int[] parent; // segment of each city
+
+	final int[] lo, hi; // range of each segment in order
+	final boolean[] reversed; // walk the range from hi to lo
+	final int[] segNext, segPrev; // ring of segments in tour direction
+	final int[] rank; // position of each segment in the ring
+	final int[] chain; // scratch space for reverse
+	int segments;
+
+	public TwoLevelList(int n) {
+		this.n = n;
+		groupSize = Math.max(8, (int) Math.sqrt(n));
+		maxSegments = 2 * ((n + groupSize - 1) / groupSize) + 8;
+
+		order = new int[n];
+		spare = new int[n];
+		idx = new int[n];
+		parent = new int[n];
+
+		// a reverse adds at most two segments before the next check
+		int capacity = maxSegments + 3;
+		lo = new int[capacity];
+		hi = new int[capacity];
+		reversed = new boolean[capacity];
+		segNext = new int[capacity];
+		segPrev = new int[capacity];
+		rank = new int[capacity];
+		chain = new int[capacity];
+	}
+
+	/**
+	 * @param tour
+	 *            cities in tour order
+	 */
+	public void load(int[] tour) {
+		System.arraycopy(tour, 0, order, 0, n);
+		group();
+	}
+
+	/**
+	 * @param tour
+	 *            receives the cities in tour order
+	 */
+	public void store(int[] tour) {
+		int city = head(0);
+		for (int i = 0; i < n; i++) {
+			tour[i] = city;
+			city = next(city);
+		}
+	}
+
+	/**
+	 * Cut order, which holds the tour front to back, into equal segments
+	 */
+	void group() {
+		segments = 0;
+		for (int start = 0; start < n; start += groupSize) {
+			int s = segments++;
+			lo[s] = start;
+			hi[s] = Math.min(n, start + groupSize) - 1;
+			reversed[s] = false;
+			rank[s] = s;
+			for (int i = lo[s]; i <= hi[s]; i++) {
+				idx[order[i]] = i;
+				parent[order[i]] = s;
+			}
+		}
+		for (int s = 0; s < segments; s++) {
+			segNext[s] = (s + 1 == segments) ? 0 : s + 1;
+			segPrev[s] = (s == 0) ? segments - 1 : s - 1;
+		}
+	}
+
+	/**
+	 * Write the tour into a fresh array and group it again
+	 */
+	void regroup() {
+		store(spare);
+		int[] tmp = order;
+		order = spare;
+		spare = tmp;
+		group();
+	}
+
+	int head(int s) {
+		return reversed[s] ? order[hi[s]] : order[lo[s]];
+	}
+
+	int tail(int s) {
+		return reversed[s] ? order[lo[s]] : order[hi[s]];
+	}
+
+	public int next(int city) {
+		int s = parent[city];
+		int i = idx[city];
+		if (reversed[s])
+			return (i > lo[s]) ? order[i - 1] : head(segNext[s]);
+		return (i < hi[s]) ? order[i + 1] : head(segNext[s]);
+	}
+
+	public int prev(int city) {
+		int s = parent[city];
+		int i = idx[city];
+		if (reversed[s])
+			return (i < hi[s]) ? order[i + 1] : tail(segPrev[s]);
+		return (i > lo[s]) ? order[i - 1] : tail(segPrev[s]);
+	}
+
+	long key(int city) {
+		int s = parent[city];
+		int offset = reversed[s] ? hi[s] - idx[city] : idx[city] - lo[s];
+		return ((long) rank[s] << 32) | offset;
+	}
+
+	/**
+	 * @return true if b lies on the path from a forward to c
+	 */
+	public boolean between(int a, int b, int c) {
+		long ka = key(a), kb = key(b), kc = key(c);
+		if (ka <= kc)
+			return ka <= kb && kb <= kc;
+		return kb >= ka || kb <= kc;
+	}
+
+	/**
+	 * Reverse the path that runs from a forward to b
+	 */
+	public void reverse(int a, int b) {
+		if (a == b)
+			return;
+		if (segments > maxSegments)
+			regroup();
+
+		splitBefore(a);
+		if (b != tail(parent[b]))
+			splitBefore(next(b));
+
+		int sa = parent[a];
+		int sb = parent[b];
+		int before = segPrev[sa];
+		int after = segNext[sb];
+
+		if (after == sa) {
+			// the path is the whole tour, turn the ring around
+			int s = sa;
+			do {
+				int tmp = segNext[s];
+				segNext[s] = segPrev[s];
+				segPrev[s] = tmp;
+				reversed[s] = !reversed[s];
+				s = tmp;
+			} while (s != sa);
+		} else {
+			int k = 0;
+			for (int s = sa;; s = segNext[s]) {
+				chain[k++] = s;
+				if (s == sb)
+					break;
+			}
+			int last = before;
+			for (int j = k - 1; j >= 0; j--) {
+				int s = chain[j];
+				reversed[s] = !reversed[s];
+				segNext[last] = s;
+				segPrev[s] = last;
+				last = s;
+			}
+			segNext[last] = after;
+			segPrev[after] = last;
+		}
+
+		int r = 0;
+		int s = sa;
+		do {
+			rank[s] = r++;
+			s = segNext[s];
+		} while (s != sa);
+	}
+
+	/**
+	 * Split the segment of a so that a becomes the head of a segment. The
+	 * smaller part moves to a new segment, so at most half a segment of
+	 * cities needs a new parent.
+	 */
+	void splitBefore(int a) {
+		int s = parent[a];
+		if (head(s) == a)
+			return;
+
+		int i = idx[a];
+		int beforeLo, beforeHi, fromLo, fromHi;
+		if (reversed[s]) {
+			beforeLo = i + 1;
+			beforeHi = hi[s];
+			fromLo = lo[s];
+			fromHi = i;
+		} else {
+			beforeLo = lo[s];
+			beforeHi = i - 1;
+			fromLo = i;
+			fromHi = hi[s];
+		}
+
+		int t = segments++;
+		reversed[t] = reversed[s];
+		if (beforeHi - beforeLo <= fromHi - fromLo) {
+			// t holds the cities before a and goes in front of s
+			lo[t] = beforeLo;
+			hi[t] = beforeHi;
+			lo[s] = fromLo;
+			hi[s] = fromHi;
+			int p = segPrev[s];
+			segNext[p] = t;
+			segPrev[t] = p;
+			segNext[t] = s;
+			segPrev[s] = t;
+		} else {
+			// t holds a and the rest and goes after s
+			lo[t] = fromLo;
+			hi[t] = fromHi;
+			lo[s] = beforeLo;
+			hi[s] = beforeHi;
+			int q = segNext[s];
+			segNext[s] = t;
+			segPrev[t] = s;
+			segNext[t] = q;
+			segPrev[q] = t;
+		}
+		for (int j = lo[t]; j <= hi[t]; j++)
+			parent[order[j]] = t;
+	}
+}
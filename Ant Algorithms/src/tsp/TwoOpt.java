@@ -0,0 +1,165 @@
+package tsp;
+
+/**
+ * First-improvement 2-opt restricted to the candidate lists. Cities whose
+ * neighbourhood did not yield an improvement get their don't-look bit set
+ * and are only looked at again once one of their tour neighbours changes.
+ * An instance keeps its own work arrays, so use one per thread.
+ */
+public class TwoOpt {
+
+	static final double EPSILON = 1e-9;
+
+	final Matrix distance;
+	final int[][] nnList;
+	final int n;
+
+	int[] tour;
+	final int[] pos; // position of each city in the tour
+	final int[] queue; // cities whose don't-look bit is off
+	final boolean[] queued;
+	int head, size;
+
+	public TwoOpt(Matrix distance, int[][] nnList) {
+		this.distance = distance;
+		this.nnList = nnList;
+		this.n = nnList.length;
+		pos = new int[n];
+		queue = new int[n];
+		queued = new boolean[n];
+	}
+
+	/**
+	 * Improve a tour in place
+	 * 
+	 * @param tour
+	 *            city order, modified in place
+	 * @param length
+	 *            current length of the tour
+	 * @return length of the improved tour
+	 */
+	public double improve(int[] tour, double length) {
+		this.tour = tour;
+		head = 0;
+		size = 0;
+		for (int i = 0; i < n; i++) {
+			pos[tour[i]] = i;
+			queued[tour[i]] = false;
+		}
+		for (int i = 0; i < n; i++)
+			push(tour[i]);
+
+		while (size > 0) {
+			int c1 = pop();
+			double gain = improveCity(c1);
+			length -= gain;
+		}
+		return length;
+	}
+
+	/**
+	 * Try the moves that add an edge from c1 to one of its candidates
+	 * 
+	 * @return gain of the applied move, zero if there was none
+	 */
+	double improveCity(int c1) {
+		// c1 -> succ: replace (c1,c2),(c3,c4) by (c1,c3),(c2,c4)
+		int c2 = succ(c1);
+		double radius = distance.get(c1, c2);
+		for (int c3 : nnList[c1]) {
+			double d13 = distance.get(c1, c3);
+			if (d13 >= radius)
+				break;
+			int c4 = succ(c3);
+			double gain = radius + distance.get(c3, c4) - d13
+					- distance.get(c2, c4);
+			if (gain > EPSILON) {
+				reverse(pos[c2], pos[c3]);
+				wake(c1, c2, c3, c4);
+				return gain;
+			}
+		}
+
+		// pred -> c1: replace (c2,c1),(c4,c3) by (c1,c3),(c2,c4)
+		c2 = pred(c1);
+		radius = distance.get(c2, c1);
+		for (int c3 : nnList[c1]) {
+			double d13 = distance.get(c1, c3);
+			if (d13 >= radius)
+				break;
+			int c4 = pred(c3);
+			double gain = radius + distance.get(c4, c3) - d13
+					- distance.get(c2, c4);
+			if (gain > EPSILON) {
+				reverse(pos[c1], pos[c4]);
+				wake(c1, c2, c3, c4);
+				return gain;
+			}
+		}
+		return 0.0;
+	}
+
+	int succ(int city) {
+		int i = pos[city] + 1;
+		return tour[i == n ? 0 : i];
+	}
+
+	int pred(int city) {
+		int i = pos[city] - 1;
+		return tour[i < 0 ? n - 1 : i];
+	}
+
+	/**
+	 * Reverse the cyclic stretch of positions i..j. Reversing the rest of
+	 * the tour instead yields the same cycle, so the shorter side is used.
+	 */
+	void reverse(int i, int j) {
+		int len = j - i;
+		if (len < 0)
+			len += n;
+		len++;
+		if (len * 2 > n) {
+			int tmp = i;
+			i = j + 1;
+			j = tmp - 1;
+			len = n - len;
+		}
+		for (int s = 0; s < len / 2; s++) {
+			if (i == n)
+				i = 0;
+			if (j < 0)
+				j = n - 1;
+			int a = tour[i], b = tour[j];
+			tour[i] = b;
+			pos[b] = i;
+			tour[j] = a;
+			pos[a] = j;
+			i++;
+			j--;
+		}
+	}
+
+	void wake(int c1, int c2, int c3, int c4) {
+		push(c1);
+		push(c2);
+		push(c3);
+		push(c4);
+	}
+
+	void push(int city) {
+		if (queued[city])
+			return;
+		queued[city] = true;
+		int tail = head + size;
+		queue[tail >= n ? tail - n : tail] = city;
+		size++;
+	}
+
+	int pop() {
+		int city = queue[head];
+		head = (head + 1 == n) ? 0 : head + 1;
+		size--;
+		queued[city] = false; // don't-look bit set until woken again
+		return city;
+	}
+}
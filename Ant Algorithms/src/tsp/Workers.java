@@ -0,0 +1,67 @@
+package tsp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+
+/**
+ * Fixed pool of daemon threads that splits a range of indices (usually the
+ * ants of a colony) into one contiguous slice per worker.
+ */
+public class Workers {
+
+	final int threads;
+	final ExecutorService pool;
+
+	public Workers(int threads) {
+		this.threads = threads;
+		this.pool = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "ant-worker");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Run the task for every index in [0, n) and wait until all slices are
+	 * done, so the caller can rely on the results afterwards.
+	 *
+	 * @param n
+	 *            number of indices
+	 * @param task
+	 *            work for a single index
+	 */
+	public void run(int n, IntConsumer task) {
+		List<Callable<Void>> slices = new ArrayList<>(threads);
+		int slice = (n + threads - 1) / threads;
+
+		for (int start = 0; start < n; start += slice) {
+			final int from = start;
+			final int to = Math.min(n, start + slice);
+			slices.add(() -> {
+				for (int i = from; i < to; i++)
+					task.accept(i);
+				return null;
+			});
+		}
+
+		try {
+			for (Future<Void> f : pool.invokeAll(slices))
+				f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while waiting for workers", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("worker failed", e.getCause());
+		}
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+}